@@ -9,6 +9,7 @@ public class ProductAggregateDto {
     private final List<RecommendationSummaryDto> recommendations;
     private final List<ReviewSummaryDto> reviews;
     private final ServiceAddressesDto serviceAddresses;
+    private final boolean degraded;
 
     public ProductAggregateDto() {
         productId = 0;
@@ -17,15 +18,21 @@ public class ProductAggregateDto {
         recommendations = null;
         reviews = null;
         serviceAddresses = null;
+        degraded = false;
     }
 
     public ProductAggregateDto(int productId, String name, int weight, List<RecommendationSummaryDto> recommendations, List<ReviewSummaryDto> reviews, ServiceAddressesDto serviceAddresses) {
+        this(productId, name, weight, recommendations, reviews, serviceAddresses, false);
+    }
+
+    public ProductAggregateDto(int productId, String name, int weight, List<RecommendationSummaryDto> recommendations, List<ReviewSummaryDto> reviews, ServiceAddressesDto serviceAddresses, boolean degraded) {
         this.productId = productId;
         this.name = name;
         this.weight = weight;
         this.recommendations = recommendations;
         this.reviews = reviews;
         this.serviceAddresses = serviceAddresses;
+        this.degraded = degraded;
     }
 
     public int getProductId() {
@@ -51,4 +58,11 @@ public class ProductAggregateDto {
     public ServiceAddressesDto getServiceAddresses() {
         return serviceAddresses;
     }
+
+    /**
+     * @return true if the recommendations or the reviews could not be retrieved and are missing from the aggregate
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
 }
@@ -2,6 +2,9 @@ package com.fpivetti.api.core.product;
 
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.Map;
+
 public interface ProductService {
 
     /**
@@ -15,6 +18,18 @@ public interface ProductService {
             produces = "application/json")
     ProductDto getProduct(@PathVariable int productId);
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/product?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the products found, by productId
+     */
+    @GetMapping(
+            value = "/product",
+            params = "productIds",
+            produces = "application/json")
+    Map<Integer, ProductDto> getProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
     /**
      * Sample usage, see below.
      * curl -X POST $HOST:$PORT/product \
@@ -3,6 +3,7 @@ package com.fpivetti.api.core.recommendation;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 public interface RecommendationService {
 
@@ -17,6 +18,18 @@ public interface RecommendationService {
             produces = "application/json")
     List<RecommendationDto> getRecommendations(@RequestParam(value = "productId") int productId);
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the recommendations of each product, by productId
+     */
+    @GetMapping(
+            value = "/recommendation",
+            params = "productIds",
+            produces = "application/json")
+    Map<Integer, List<RecommendationDto>> getRecommendations(@RequestParam(value = "productIds") List<Integer> productIds);
+
     /**
      * Sample usage, see below.
      * curl -X POST $HOST:$PORT/recommendation \
@@ -3,6 +3,7 @@ package com.fpivetti.api.core.review;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 public interface ReviewService {
 
@@ -17,6 +18,18 @@ public interface ReviewService {
             produces = "application/json")
     List<ReviewDto> getReviews(@RequestParam(value = "productId") int productId);
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the reviews of each product, by productId
+     */
+    @GetMapping(
+            value = "/review",
+            params = "productIds",
+            produces = "application/json")
+    Map<Integer, List<ReviewDto>> getReviews(@RequestParam(value = "productIds") List<Integer> productIds);
+
     /**
      * Sample usage, see below.
      * curl -X POST $HOST:$PORT/review \
@@ -0,0 +1,12 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+
+/**
+ * A cache layer wraps the cache returned by the layer below it (ultimately the Redis cache)
+ * adding a single behaviour on top of it. A disabled layer returns the given cache unchanged.
+ */
+@FunctionalInterface
+public interface CacheLayer {
+    Cache decorate(Cache cache);
+}
@@ -0,0 +1,84 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs cache refreshes in the background, at most one at a time per entry and never more than
+ * maxConcurrentRefreshes overall: when all the refresh threads are busy the refresh is dropped,
+ * since the entry is still served and the next read will ask for it again.
+ * This keeps a burst of refreshes from overloading the product, recommendation and review services.
+ */
+@Component
+public class CacheRefresher implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(CacheRefresher.class);
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public CacheRefresher(MeterRegistry meterRegistry,
+                          @Value("${app.cache.refresh.max-concurrent-refreshes}") int maxConcurrentRefreshes) {
+        this.meterRegistry = meterRegistry;
+        this.executor = new ThreadPoolExecutor(maxConcurrentRefreshes, maxConcurrentRefreshes, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new CustomizableThreadFactory("cache-refresh-"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param refresh the task rebuilding the entry, it must take care of storing the new value
+     * @return true if the refresh has been scheduled, false if it was already running or the limit was reached
+     */
+    public boolean refresh(String cacheName, Object key, String reason, Runnable refresh) {
+        String refreshKey = cacheName + "::" + key;
+        if (!refreshing.add(refreshKey)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh.run();
+                    record(cacheName, reason, "success");
+                } catch (Exception ex) {
+                    LOG.warn("Background refresh of {} failed: {}", refreshKey, ex.getMessage());
+                    record(cacheName, reason, "failure");
+                } finally {
+                    refreshing.remove(refreshKey);
+                }
+            });
+            LOG.debug("Scheduled the background refresh of {}, reason: {}", refreshKey, reason);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            refreshing.remove(refreshKey);
+            record(cacheName, reason, "rejected");
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void record(String cacheName, String reason, String result) {
+        Counter.builder("cache.refreshes")
+                .description("Background cache refreshes by reason and result")
+                .tags("cache", cacheName, "reason", reason, "result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
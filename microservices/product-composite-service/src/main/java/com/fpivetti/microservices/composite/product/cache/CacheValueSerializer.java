@@ -0,0 +1,236 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Versioned codec for the values of a cache holding a single, known type.
+ *
+ * Values of the cached type are written as Smile (binary JSON) without any type information, behind a header:
+ * <pre>
+ *   byte 0: MAGIC
+ *   byte 1: format version, SMILE_V1, or JSON_V1 for the WIRE format
+ *   byte 2: flags, FLAG_LZ4 if the body is LZ4 compressed, FLAG_TOMBSTONE if the value is a {@link Tombstone}
+ * </pre>
+ * The WIRE format writes them instead as the JSON of the HTTP responses, using the given wire mapper, so that
+ * an uncompressed body can be sent as it is to the clients (see {@link #wireJson}).
+ *
+ * Bodies of at least compressionThreshold bytes are LZ4 compressed, unless compressing them does not save space.
+ * A compressed body is the uncompressed length as a 4 bytes int followed by an LZ4 block.
+ * The body of a tombstone is its UTF-8 encoded message, in the SMILE and WIRE formats.
+ *
+ * Values without the header are the JSON written by {@link GenericJackson2JsonRedisSerializer}: they are still
+ * read, and still written when the JSON format is selected, so that old and new replicas can share the cache
+ * during a rolling deploy; tombstones included, as typed JSON. Values of any other type always use the JSON format.
+ */
+public class CacheValueSerializer implements RedisSerializer<Object> {
+    static final byte MAGIC = (byte) 0xCA;
+    static final byte SMILE_V1 = 1;
+    static final byte JSON_V1 = 2;
+    static final byte FLAG_LZ4 = 1;
+    static final byte FLAG_TOMBSTONE = 2;
+    static final int HEADER_LENGTH = 3;
+    public static final int NO_COMPRESSION = Integer.MAX_VALUE;
+    // An LZ4 block cannot expand its input more than about 255 times
+    private static final int MAX_LZ4_RATIO = 255;
+    private static final LZ4Compressor LZ4_COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    // Values read from Redis are not trusted: the safe decompressor never reads past the compressed input
+    private static final LZ4SafeDecompressor LZ4_DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    public enum Format { JSON, SMILE, WIRE }
+
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+    private final ObjectMapper smile;
+    private final ObjectReader smileReader;
+    private final ObjectMapper wire;
+    private final ObjectReader wireReader;
+    private final JavaType valueType;
+    private final Format format;
+    private final int compressionThreshold;
+    private final Timer compressionTimer;
+    private final Timer decompressionTimer;
+    private final DistributionSummary compressionRatio;
+
+    public CacheValueSerializer(String cacheName, Class<?> valueType, Format format, int compressionThreshold, MeterRegistry meterRegistry) {
+        this(cacheName, TypeFactory.defaultInstance().constructType(valueType), format, compressionThreshold, meterRegistry);
+    }
+
+    /**
+     * @param valueType the cached type, generic types such as lists are only checked against their raw class on write
+     */
+    public CacheValueSerializer(String cacheName, JavaType valueType, Format format, int compressionThreshold, MeterRegistry meterRegistry) {
+        this(cacheName, valueType, format, compressionThreshold, JsonMapper.builder().build(), meterRegistry);
+    }
+
+    /**
+     * @param wireMapper the mapper writing the HTTP responses, used by the WIRE format
+     */
+    public CacheValueSerializer(String cacheName, JavaType valueType, Format format, int compressionThreshold,
+                                ObjectMapper wireMapper, MeterRegistry meterRegistry) {
+        this.valueType = valueType;
+        this.format = format;
+        this.compressionThreshold = compressionThreshold;
+        // The Smile header is kept since it is what tells the reader that shared string values are in use
+        this.smile = SmileMapper.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build();
+        this.smileReader = smile.readerFor(valueType);
+        this.wire = wireMapper;
+        this.wireReader = wireMapper.readerFor(valueType).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.compressionTimer = Timer.builder("cache.codec.compression")
+                .description("Time spent compressing and decompressing cache values")
+                .tags("cache", cacheName, "operation", "compress")
+                .register(meterRegistry);
+        this.decompressionTimer = Timer.builder("cache.codec.compression")
+                .description("Time spent compressing and decompressing cache values")
+                .tags("cache", cacheName, "operation", "decompress")
+                .register(meterRegistry);
+        this.compressionRatio = DistributionSummary.builder("cache.codec.compression.ratio")
+                .description("Uncompressed size divided by compressed size of the compressed cache values")
+                .tags("cache", cacheName)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (value instanceof Tombstone tombstone && format != Format.JSON) {
+            return withHeader(format == Format.WIRE ? JSON_V1 : SMILE_V1, FLAG_TOMBSTONE,
+                    String.valueOf(tombstone.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+        if (format == Format.JSON || !valueType.getRawClass().isInstance(value)) {
+            return json.serialize(value);
+        }
+        try {
+            byte[] body = (format == Format.WIRE) ? wire.writeValueAsBytes(value) : smile.writeValueAsBytes(value);
+            byte flags = 0;
+            if (body.length >= compressionThreshold) {
+                byte[] compressed = compress(body);
+                if (compressed.length < body.length) {
+                    compressionRatio.record((double) body.length / compressed.length);
+                    body = compressed;
+                    flags |= FLAG_LZ4;
+                }
+            }
+            return withHeader(format == Format.WIRE ? JSON_V1 : SMILE_V1, flags, body);
+        } catch (IOException ex) {
+            throw new SerializationException("Could not write " + format + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return json.deserialize(bytes);
+        }
+        if (bytes.length < HEADER_LENGTH || (bytes[1] != SMILE_V1 && bytes[1] != JSON_V1)) {
+            throw new SerializationException("Unsupported cache value format version: " + (bytes.length > 1 ? bytes[1] : "none"));
+        }
+        if ((bytes[2] & FLAG_TOMBSTONE) != 0) {
+            return new Tombstone(new String(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, StandardCharsets.UTF_8));
+        }
+        ObjectReader reader = (bytes[1] == JSON_V1) ? wireReader : smileReader;
+        try {
+            if ((bytes[2] & FLAG_LZ4) != 0) {
+                return reader.readValue(decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH));
+            }
+            return reader.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        } catch (IOException | LZ4Exception ex) {
+            throw new SerializationException("Could not read " + (bytes[1] == JSON_V1 ? "JSON" : "Smile") + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Gives the JSON of a value written in the WIRE format without reading it: the body itself if it is not
+     * compressed, so that no copy is made.
+     *
+     * @param stored the value as read from Redis
+     * @return the JSON, null if the value is not a WIRE value of the cached type, tombstones included
+     */
+    public ByteBuffer wireJson(ByteBuffer stored) {
+        int position = stored.position();
+        if (stored.remaining() < HEADER_LENGTH || stored.get(position) != MAGIC || stored.get(position + 1) != JSON_V1
+                || (stored.get(position + 2) & FLAG_TOMBSTONE) != 0) {
+            return null;
+        }
+        ByteBuffer body = stored.duplicate().position(position + HEADER_LENGTH).slice();
+        if ((stored.get(position + 2) & FLAG_LZ4) == 0) {
+            return body;
+        }
+        byte[] compressed = new byte[body.remaining()];
+        body.get(compressed);
+        try {
+            return ByteBuffer.wrap(decompress(compressed, 0, compressed.length));
+        } catch (LZ4Exception ex) {
+            throw new SerializationException("Could not read JSON: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static byte[] withHeader(byte version, byte flags, byte[] body) {
+        byte[] bytes = new byte[HEADER_LENGTH + body.length];
+        bytes[0] = MAGIC;
+        bytes[1] = version;
+        bytes[2] = flags;
+        System.arraycopy(body, 0, bytes, HEADER_LENGTH, body.length);
+        return bytes;
+    }
+
+    private byte[] compress(byte[] body) {
+        long start = System.nanoTime();
+        byte[] compressed = new byte[Integer.BYTES + LZ4_COMPRESSOR.maxCompressedLength(body.length)];
+        ByteBuffer.wrap(compressed).putInt(body.length);
+        int length = LZ4_COMPRESSOR.compress(body, 0, body.length, compressed, Integer.BYTES);
+        compressionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return Arrays.copyOf(compressed, Integer.BYTES + length);
+    }
+
+    private byte[] decompress(byte[] bytes, int offset, int length) {
+        long start = System.nanoTime();
+        try {
+            if (length < Integer.BYTES) {
+                throw new SerializationException("Truncated compressed cache value");
+            }
+            int bodyLength = ByteBuffer.wrap(bytes, offset, length).getInt();
+            // Bounds what a corrupt or foreign value can make us allocate
+            if (bodyLength < 0 || bodyLength > (long) (length - Integer.BYTES) * MAX_LZ4_RATIO) {
+                throw new SerializationException("Invalid uncompressed length of cache value: " + bodyLength);
+            }
+            byte[] body = new byte[bodyLength];
+            int decompressed = LZ4_DECOMPRESSOR.decompress(bytes, offset + Integer.BYTES, length - Integer.BYTES, body, 0, body.length);
+            if (decompressed != bodyLength) {
+                throw new SerializationException("Truncated compressed cache value: " + decompressed + " of " + bodyLength + " bytes");
+            }
+            return body;
+        } finally {
+            decompressionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
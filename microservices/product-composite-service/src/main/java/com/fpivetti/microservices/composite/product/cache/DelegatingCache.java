@@ -0,0 +1,183 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Base class for the cache layers: every operation is forwarded to the target cache,
+ * so that a layer only needs to override the operations it actually changes.
+ */
+public abstract class DelegatingCache implements Cache {
+    protected final Cache target;
+
+    protected DelegatingCache(Cache target) {
+        this.target = target;
+    }
+
+    public Cache getTarget() {
+        return target;
+    }
+
+    /**
+     * Looks the key up in memory only, without any I/O, so that it can be called from an event loop thread.
+     *
+     * @return the cached value, or null if the layers cannot tell without reaching the target cache
+     */
+    public ValueWrapper getLocal(Object key) {
+        return (target instanceof DelegatingCache layer) ? layer.getLocal(key) : null;
+    }
+
+    /**
+     * Looks several keys up at once. Caches that are not layered are looked up one key at a time.
+     *
+     * @return the entries found, by key
+     */
+    public Map<Object, ValueWrapper> getAll(Collection<?> keys) {
+        if (target instanceof DelegatingCache layer) {
+            return layer.getAll(keys);
+        }
+        Map<Object, ValueWrapper> found = new LinkedHashMap<>();
+        for (Object key : keys) {
+            ValueWrapper wrapper = target.get(key);
+            if (wrapper != null) {
+                found.put(key, wrapper);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes several entries at once. Caches that are not layered are written one key at a time.
+     */
+    public void putAll(Map<?, ?> values) {
+        if (target instanceof DelegatingCache layer) {
+            layer.putAll(values);
+        } else {
+            values.forEach(target::put);
+        }
+    }
+
+    /**
+     * Reads the fill token of a missed key, to be taken before its value is loaded and handed back to putIfValid.
+     *
+     * @return the token, null if the fills of this cache are not guarded
+     */
+    public Object fillToken(Object key) {
+        return (target instanceof DelegatingCache layer) ? layer.fillToken(key) : null;
+    }
+
+    /**
+     * Non-blocking fillToken.
+     */
+    public CompletableFuture<Object> fillTokenAsync(Object key) {
+        return (target instanceof DelegatingCache layer) ? layer.fillTokenAsync(key) : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Reads the fill tokens of several missed keys at once.
+     *
+     * @return the tokens, by key, without the keys whose fills are not guarded
+     */
+    public Map<Object, Object> fillTokens(Collection<?> keys) {
+        return (target instanceof DelegatingCache layer) ? layer.fillTokens(keys) : Map.of();
+    }
+
+    /**
+     * Stores a loaded value, unless the key has been written or evicted since its fill token was read.
+     *
+     * @return whether the value has been stored
+     */
+    public boolean putIfValid(Object key, Object value, Object token) {
+        if (target instanceof DelegatingCache layer) {
+            return layer.putIfValid(key, value, token);
+        }
+        target.put(key, value);
+        return true;
+    }
+
+    /**
+     * Stores several loaded values at once, each one under the same condition as putIfValid.
+     *
+     * @return the keys whose value has been stored
+     */
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        if (target instanceof DelegatingCache layer) {
+            return layer.putAllIfValid(values, tokens);
+        }
+        values.forEach(target::put);
+        return new LinkedHashSet<>(values.keySet());
+    }
+
+    @Override
+    public String getName() {
+        return target.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return target.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        return target.get(key);
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> type) {
+        return target.get(key, type);
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        return target.get(key, valueLoader);
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        return target.retrieve(key);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return target.retrieve(key, valueLoader);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        target.put(key, value);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        return target.putIfAbsent(key, value);
+    }
+
+    @Override
+    public void evict(Object key) {
+        target.evict(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        return target.evictIfPresent(key);
+    }
+
+    @Override
+    public void clear() {
+        target.clear();
+    }
+
+    @Override
+    public boolean invalidate() {
+        return target.invalidate();
+    }
+}
@@ -0,0 +1,135 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Guards the cache fills against the writes and evictions that happen while the value is loaded:
+ * a miss takes a fill token, every write or eviction invalidates the outstanding tokens of its key,
+ * and a fill whose token is no longer valid is dropped instead of overwriting the newer state with a stale value.
+ * Fills without a token, e.g. when it could not be read, are stored unconditionally.
+ */
+public class FillLeaseCache extends DelegatingCache {
+    private final PipelinedRedisCache redisCache;
+    private final FillLeaseLayer layer;
+
+    FillLeaseCache(PipelinedRedisCache target, FillLeaseLayer layer) {
+        super(target);
+        this.redisCache = target;
+        this.layer = layer;
+    }
+
+    @Override
+    public Object fillToken(Object key) {
+        return layer.readToken(getName(), key);
+    }
+
+    @Override
+    public CompletableFuture<Object> fillTokenAsync(Object key) {
+        return layer.readTokenAsync(getName(), key).thenApply(token -> token);
+    }
+
+    @Override
+    public Map<Object, Object> fillTokens(Collection<?> keys) {
+        return new LinkedHashMap<>(layer.readTokens(getName(), keys));
+    }
+
+    @Override
+    public boolean putIfValid(Object key, Object value, Object token) {
+        if (token == null) {
+            return super.putIfValid(key, value, null);
+        }
+        return layer.setIfValid(getName(), key, token.toString(), redisCache.redisKey(key),
+                redisCache.serialize(value), redisCache.timeToLive(key, value));
+    }
+
+    /**
+     * Null values are skipped, the Redis caches do not store them.
+     */
+    @Override
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        Map<Object, Object> unguarded = new LinkedHashMap<>();
+        Map<Object, String> guardedTokens = new LinkedHashMap<>();
+        Map<Object, FillLeaseLayer.RedisEntry> guarded = new LinkedHashMap<>();
+        values.forEach((key, value) -> {
+            Object token = tokens.get(key);
+            if (value == null) {
+                return;
+            }
+            if (token == null) {
+                unguarded.put(key, value);
+            } else {
+                guardedTokens.put(key, token.toString());
+                guarded.put(key, new FillLeaseLayer.RedisEntry(redisCache.redisKey(key),
+                        redisCache.serialize(value), redisCache.timeToLive(key, value)));
+            }
+        });
+        Set<Object> stored = new LinkedHashSet<>();
+        if (!unguarded.isEmpty()) {
+            super.putAll(unguarded);
+            stored.addAll(unguarded.keySet());
+        }
+        if (!guarded.isEmpty()) {
+            stored.addAll(layer.setAllIfValid(getName(), guardedTokens, guarded));
+        }
+        return stored;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return redisCache.retrieve(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((T) cached);
+            }
+            return layer.readTokenAsync(getName(), key).thenCompose(token -> valueLoader.get().thenCompose(value -> {
+                if (value == null || token == null) {
+                    return redisCache.putAsync(key, value).thenApply(done -> value);
+                }
+                return layer.setIfValidAsync(getName(), key, token, redisCache.redisKey(key),
+                        redisCache.serialize(value), redisCache.timeToLive(key, value)).thenApply(stored -> value);
+            }));
+        });
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        layer.bump(getName(), Set.of(key));
+        target.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<?, ?> values) {
+        layer.bump(getName(), values.keySet());
+        super.putAll(values);
+    }
+
+    @Override
+    public void evict(Object key) {
+        layer.bump(getName(), Set.of(key));
+        target.evict(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        layer.bump(getName(), Set.of(key));
+        return target.evictIfPresent(key);
+    }
+
+    @Override
+    public void clear() {
+        layer.bumpAll(getName());
+        target.clear();
+    }
+
+    @Override
+    public boolean invalidate() {
+        layer.bumpAll(getName());
+        return target.invalidate();
+    }
+}
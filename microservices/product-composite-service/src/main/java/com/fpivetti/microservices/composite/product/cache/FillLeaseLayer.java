@@ -0,0 +1,297 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates the {@link FillLeaseCache} instances and owns their version counters: a "fill:cacheName::key" counter per key,
+ * bumped by every write and eviction of the key, and a "fill:cacheName" counter bumped when the whole cache is cleared.
+ * A fill token is the value of both counters, read on a miss; the fill is then stored by a script that compares
+ * the counters with the token and sets the value only if they did not move.
+ * The counters expire after the version TTL, which must be longer than any value load. A bump sets them from a
+ * "fill-sequence:cacheName" sequence that never expires, so that a counter recreated after expiring never takes
+ * a value it had before, which would make an older token valid again.
+ */
+@Component
+public class FillLeaseLayer implements CacheLayer {
+    private static final Logger LOG = LoggerFactory.getLogger(FillLeaseLayer.class);
+    static final String STORED = "stored";
+    static final String REJECTED = "rejected";
+    private static final RedisScript<Long> BUMP_SCRIPT = new DefaultRedisScript<>("""
+            local version = redis.call('incr', KEYS[1])
+            for i = 2, #KEYS do redis.call('set', KEYS[i], version, 'px', ARGV[1]) end
+            return version
+            """, Long.class);
+    private static final byte[] SET_IF_VALID_SCRIPT = ("""
+            local current = (redis.call('get', KEYS[1]) or '') .. ':' .. (redis.call('get', KEYS[2]) or '')
+            if current ~= ARGV[1] then return 0 end
+            if tonumber(ARGV[3]) > 0 then redis.call('set', KEYS[3], ARGV[2], 'px', ARGV[3]) else redis.call('set', KEYS[3], ARGV[2]) end
+            return 1
+            """).getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration versionTtl;
+
+    @Autowired
+    public FillLeaseLayer(StringRedisTemplate redisTemplate, ReactiveStringRedisTemplate reactiveRedisTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.cache.fill-lease.enabled}") boolean enabled,
+                          @Value("${app.cache.fill-lease.version-ttl}") Duration versionTtl) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.versionTtl = versionTtl;
+    }
+
+    /**
+     * Must be placed right on top of the {@link PipelinedRedisLayer}, whose key and value encoding it reuses.
+     */
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!enabled || !(cache instanceof PipelinedRedisCache redisCache)) {
+            return cache;
+        }
+        LOG.debug("Lease-based fills enabled for cache: {}", cache.getName());
+        return new FillLeaseCache(redisCache, this);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the token, null if it cannot be read: the fill is then stored unconditionally
+     */
+    String readToken(String cacheName, Object key) {
+        return readTokens(cacheName, List.of(key)).get(key);
+    }
+
+    Map<Object, String> readTokens(String cacheName, Collection<?> keys) {
+        Map<Object, String> tokens = new LinkedHashMap<>();
+        if (keys.isEmpty()) {
+            return tokens;
+        }
+        List<String> counterKeys = new ArrayList<>(keys.size() + 1);
+        keys.forEach(key -> counterKeys.add(versionKey(cacheName, key)));
+        counterKeys.add(epochKey(cacheName));
+        try {
+            List<String> counters = redisTemplate.opsForValue().multiGet(counterKeys);
+            if (counters == null) {
+                return tokens;
+            }
+            String epoch = counters.getLast();
+            int i = 0;
+            for (Object key : keys) {
+                tokens.put(key, token(counters.get(i++), epoch));
+            }
+        } catch (Exception ex) {
+            LOG.warn("Failed to read the fill tokens of cache: {}, {}", cacheName, ex.getMessage());
+        }
+        return tokens;
+    }
+
+    /**
+     * Non-blocking readToken, completes with null if the token cannot be read.
+     */
+    CompletableFuture<String> readTokenAsync(String cacheName, Object key) {
+        List<ByteBuffer> counterKeys = List.of(ByteBuffer.wrap(bytes(versionKey(cacheName, key))), ByteBuffer.wrap(bytes(epochKey(cacheName))));
+        return reactiveRedisTemplate.execute(connection -> connection.stringCommands().mGet(counterKeys))
+                .next()
+                .map(counters -> token(string(counters.get(0)), string(counters.get(1))))
+                .onErrorResume(ex -> {
+                    LOG.warn("Failed to read the fill token of cache: {}, {}", cacheName, ex.getMessage());
+                    return Mono.empty();
+                })
+                .toFuture();
+    }
+
+    /**
+     * @return the current value of the fill sequence of the cache, 0 if it has never been bumped
+     */
+    long readSequence(String cacheName) {
+        return number(redisTemplate.opsForValue().get(sequenceKey(cacheName)));
+    }
+
+    /**
+     * Tells which keys have not been written or evicted since the fill sequence of the cache had the given value:
+     * those whose counters, if any, are not above it. Since the counters expire, that holds only if less than
+     * the version TTL has elapsed, unless the sequence has not moved at all.
+     *
+     * @param elapsed the time since the sequence was read
+     * @return the keys not written since, none if the counters cannot be read
+     */
+    Set<String> unchangedSince(String cacheName, long sequence, Duration elapsed, Collection<String> keys) {
+        List<String> keyList = new ArrayList<>(keys);
+        List<String> counterKeys = new ArrayList<>(keyList.size() + 2);
+        counterKeys.add(sequenceKey(cacheName));
+        counterKeys.add(epochKey(cacheName));
+        keyList.forEach(key -> counterKeys.add(versionKey(cacheName, key)));
+        Set<String> unchanged = new LinkedHashSet<>();
+        try {
+            List<String> counters = redisTemplate.opsForValue().multiGet(counterKeys);
+            if (counters == null) {
+                return unchanged;
+            }
+            if (number(counters.get(0)) == sequence) {
+                unchanged.addAll(keyList);
+            } else if (elapsed.compareTo(versionTtl) < 0 && number(counters.get(1)) <= sequence) {
+                for (int i = 0; i < keyList.size(); i++) {
+                    if (number(counters.get(i + 2)) <= sequence) {
+                        unchanged.add(keyList.get(i));
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            LOG.warn("Failed to read the fill counters of cache: {}, {}", cacheName, ex.getMessage());
+        }
+        return unchanged;
+    }
+
+    /**
+     * Invalidates the outstanding fill tokens of the keys, failures are only logged since the write itself must go on.
+     */
+    void bump(String cacheName, Collection<?> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> counterKeys = new ArrayList<>(keys.size() + 1);
+        counterKeys.add(sequenceKey(cacheName));
+        keys.forEach(key -> counterKeys.add(versionKey(cacheName, key)));
+        bumpCounters(cacheName, counterKeys);
+    }
+
+    void bumpAll(String cacheName) {
+        bumpCounters(cacheName, List.of(sequenceKey(cacheName), epochKey(cacheName)));
+    }
+
+    boolean setIfValid(String cacheName, Object key, String token, byte[] redisKey, byte[] value, Duration ttl) {
+        Long result = redisTemplate.execute((RedisCallback<Long>) connection -> connection.scriptingCommands()
+                .eval(SET_IF_VALID_SCRIPT, ReturnType.INTEGER, 3, setIfValidArgs(cacheName, key, token, redisKey, value, ttl)));
+        boolean stored = result != null && result == 1;
+        recordFill(cacheName, stored ? STORED : REJECTED, 1);
+        return stored;
+    }
+
+    CompletableFuture<Boolean> setIfValidAsync(String cacheName, Object key, String token, byte[] redisKey, byte[] value, Duration ttl) {
+        ByteBuffer[] args = Arrays.stream(setIfValidArgs(cacheName, key, token, redisKey, value, ttl)).map(ByteBuffer::wrap).toArray(ByteBuffer[]::new);
+        return reactiveRedisTemplate.execute(connection -> connection.scriptingCommands()
+                        .<Long>eval(ByteBuffer.wrap(SET_IF_VALID_SCRIPT), ReturnType.INTEGER, 3, args))
+                .next()
+                .map(result -> {
+                    boolean stored = result == 1;
+                    recordFill(cacheName, stored ? STORED : REJECTED, 1);
+                    return stored;
+                })
+                .toFuture();
+    }
+
+    /**
+     * @param values the key, the value and the time to live of each entry, by cache key
+     * @return the cache keys whose value has been stored
+     */
+    Set<Object> setAllIfValid(String cacheName, Map<Object, String> tokens, Map<Object, RedisEntry> values) {
+        List<Object> keys = new ArrayList<>(values.keySet());
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> {
+                RedisEntry entry = values.get(key);
+                connection.scriptingCommands().eval(SET_IF_VALID_SCRIPT, ReturnType.INTEGER, 3,
+                        setIfValidArgs(cacheName, key, tokens.get(key), entry.key(), entry.value(), entry.ttl()));
+            });
+            return null;
+        });
+        Set<Object> stored = new LinkedHashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (Long.valueOf(1).equals(results.get(i))) {
+                stored.add(keys.get(i));
+            }
+        }
+        recordFill(cacheName, STORED, stored.size());
+        recordFill(cacheName, REJECTED, keys.size() - stored.size());
+        return stored;
+    }
+
+    record RedisEntry(byte[] key, byte[] value, Duration ttl) {
+    }
+
+    private void bumpCounters(String cacheName, List<String> counterKeys) {
+        try {
+            redisTemplate.execute(BUMP_SCRIPT, counterKeys, String.valueOf(versionTtl.toMillis()));
+        } catch (Exception ex) {
+            LOG.warn("Failed to invalidate the fill tokens of cache: {}, {}", cacheName, ex.getMessage());
+        }
+    }
+
+    private byte[][] setIfValidArgs(String cacheName, Object key, String token, byte[] redisKey, byte[] value, Duration ttl) {
+        long ttlMillis = (ttl != null && !ttl.isNegative()) ? ttl.toMillis() : 0;
+        return new byte[][] {
+                bytes(versionKey(cacheName, key)), bytes(epochKey(cacheName)), redisKey,
+                bytes(token), value, bytes(String.valueOf(ttlMillis))
+        };
+    }
+
+    private static String versionKey(String cacheName, Object key) {
+        return "fill:" + cacheName + "::" + key;
+    }
+
+    private static String epochKey(String cacheName) {
+        return "fill:" + cacheName;
+    }
+
+    private static String sequenceKey(String cacheName) {
+        return "fill-sequence:" + cacheName;
+    }
+
+    private static String token(String version, String epoch) {
+        return ((version != null) ? version : "") + ":" + ((epoch != null) ? epoch : "");
+    }
+
+    private static long number(String counter) {
+        return (counter != null) ? Long.parseLong(counter) : 0;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return (buffer != null && buffer.hasRemaining()) ? StandardCharsets.UTF_8.decode(buffer).toString() : null;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void recordFill(String cacheName, String result, int count) {
+        Counter.builder("cache.fills")
+                .description("Loaded values stored in the cache, or rejected since the key has been written or evicted during the load")
+                .tags("cache", cacheName, "result", result)
+                .register(meterRegistry)
+                .increment(count);
+    }
+}
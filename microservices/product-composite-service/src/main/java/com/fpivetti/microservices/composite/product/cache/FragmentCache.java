@@ -0,0 +1,204 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fpivetti.api.core.product.ProductDto;
+import com.fpivetti.api.core.recommendation.RecommendationDto;
+import com.fpivetti.api.core.review.ReviewDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the parts of the product aggregates, used instead of the products cache in the fragments cache mode.
+ * The product, its recommendations and its reviews are stored under their own key, "cacheName::productId",
+ * with the time to live of their cache, so that a write on one service only evicts the fragment it changes.
+ * All the fragments of any number of products are read with a single MGET and written with a single pipeline.
+ * A missing product is stored as a {@link Tombstone} in the product fragment.
+ * The fragments loaded on a miss are stored only if their fill tokens, read with the miss, are still valid, so that
+ * a load racing an eviction does not bring the evicted fragment back; see {@link FillLeaseLayer}.
+ */
+@Component
+public class FragmentCache {
+    private static final Logger LOG = LoggerFactory.getLogger(FragmentCache.class);
+
+    public enum Fragment {
+        PRODUCT("product-info"),
+        RECOMMENDATIONS("product-recommendations"),
+        REVIEWS("product-reviews");
+
+        private final String cacheName;
+
+        Fragment(String cacheName) {
+            this.cacheName = cacheName;
+        }
+
+        public String getCacheName() {
+            return cacheName;
+        }
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisCacheKeys redisKeys;
+    private final FillLeaseLayer fillLeaseLayer;
+    private final MeterRegistry meterRegistry;
+    private final Map<Fragment, CacheValueSerializer> serializers = new EnumMap<>(Fragment.class);
+    private final Map<Fragment, TtlPolicy> ttlPolicies = new EnumMap<>(Fragment.class);
+
+    @Autowired
+    public FragmentCache(StringRedisTemplate redisTemplate, RedisCacheKeys redisKeys, FillLeaseLayer fillLeaseLayer,
+                         MeterRegistry meterRegistry,
+                         @Value("${app.cache.codec.format}") CacheValueSerializer.Format format,
+                         @Value("${app.cache.codec.compression.enabled}") boolean compressionEnabled,
+                         @Value("${app.cache.codec.compression.threshold-bytes}") int compressionThreshold,
+                         TtlPolicies policies) {
+        this.redisTemplate = redisTemplate;
+        this.redisKeys = redisKeys;
+        this.fillLeaseLayer = fillLeaseLayer;
+        this.meterRegistry = meterRegistry;
+        int threshold = compressionEnabled ? compressionThreshold : CacheValueSerializer.NO_COMPRESSION;
+        TypeFactory typeFactory = TypeFactory.defaultInstance();
+        serializers.put(Fragment.PRODUCT, new CacheValueSerializer(Fragment.PRODUCT.getCacheName(),
+                ProductDto.class, format, threshold, meterRegistry));
+        serializers.put(Fragment.RECOMMENDATIONS, new CacheValueSerializer(Fragment.RECOMMENDATIONS.getCacheName(),
+                typeFactory.constructCollectionType(List.class, RecommendationDto.class), format, threshold, meterRegistry));
+        serializers.put(Fragment.REVIEWS, new CacheValueSerializer(Fragment.REVIEWS.getCacheName(),
+                typeFactory.constructCollectionType(List.class, ReviewDto.class), format, threshold, meterRegistry));
+        for (Fragment fragment : Fragment.values()) {
+            ttlPolicies.put(fragment, policies.policy(fragment.getCacheName()));
+        }
+    }
+
+    /**
+     * The fragments found, by fragment and productId, and the fill tokens of the fragments missed.
+     */
+    public record Lookup(Map<Fragment, Map<Integer, Object>> found, Map<Fragment, Map<Object, String>> fillTokens) {
+    }
+
+    public Lookup getAll(Collection<Integer> productIds) {
+        List<Integer> ids = new ArrayList<>(productIds);
+        Fragment[] fragments = Fragment.values();
+        byte[][] keys = new byte[fragments.length * ids.size()][];
+        for (int f = 0; f < fragments.length; f++) {
+            for (int i = 0; i < ids.size(); i++) {
+                keys[f * ids.size() + i] = key(fragments[f], ids.get(i));
+            }
+        }
+        List<byte[]> values = keys.length == 0 ? List.of()
+                : redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(keys));
+
+        Map<Fragment, Map<Integer, Object>> found = new EnumMap<>(Fragment.class);
+        Map<Fragment, Map<Object, String>> fillTokens = new EnumMap<>(Fragment.class);
+        for (int f = 0; f < fragments.length; f++) {
+            Map<Integer, Object> byProductId = new HashMap<>();
+            for (int i = 0; i < ids.size(); i++) {
+                byte[] bytes = (values != null) ? values.get(f * ids.size() + i) : null;
+                if (bytes != null) {
+                    byProductId.put(ids.get(i), serializers.get(fragments[f]).deserialize(bytes));
+                }
+            }
+            record(fragments[f], "hit", byProductId.size());
+            record(fragments[f], "miss", ids.size() - byProductId.size());
+            found.put(fragments[f], byProductId);
+            List<Integer> missed = ids.stream().filter(id -> !byProductId.containsKey(id)).toList();
+            fillTokens.put(fragments[f], (fillLeaseLayer.isEnabled() && !missed.isEmpty())
+                    ? fillLeaseLayer.readTokens(fragments[f].getCacheName(), missed) : Map.of());
+        }
+        return new Lookup(found, fillTokens);
+    }
+
+    /**
+     * Writes the given fragments through, by fragment and productId, in a single pipeline. Null values are skipped.
+     * The fills in progress of these fragments are invalidated first.
+     */
+    public void putAll(Map<Fragment, Map<Integer, Object>> fragments) {
+        if (fillLeaseLayer.isEnabled()) {
+            fragments.forEach((fragment, byProductId) -> fillLeaseLayer.bump(fragment.getCacheName(), byProductId.keySet()));
+        }
+        write(fragments);
+    }
+
+    /**
+     * Stores the fragments loaded after a miss, by fragment and productId, with one pipeline per fragment.
+     * A fragment written or evicted since its fill token was read is not stored; a fragment without a token is.
+     *
+     * @param fillTokens the fill tokens returned by {@link #getAll}
+     */
+    public void putAllIfValid(Map<Fragment, Map<Integer, Object>> fragments, Map<Fragment, Map<Object, String>> fillTokens) {
+        Map<Fragment, Map<Integer, Object>> unguarded = new EnumMap<>(Fragment.class);
+        fragments.forEach((fragment, byProductId) -> {
+            Map<Object, String> tokens = fillTokens.getOrDefault(fragment, Map.of());
+            Map<Object, FillLeaseLayer.RedisEntry> guarded = new LinkedHashMap<>();
+            byProductId.forEach((productId, value) -> {
+                if (value == null) {
+                    return;
+                }
+                if (tokens.get(productId) != null) {
+                    guarded.put(productId, new FillLeaseLayer.RedisEntry(key(fragment, productId),
+                            serializers.get(fragment).serialize(value), ttlPolicies.get(fragment).ttlOf(value)));
+                } else {
+                    unguarded.computeIfAbsent(fragment, f -> new HashMap<>()).put(productId, value);
+                }
+            });
+            if (!guarded.isEmpty()) {
+                fillLeaseLayer.setAllIfValid(fragment.getCacheName(), tokens, guarded);
+            }
+        });
+        if (!unguarded.isEmpty()) {
+            write(unguarded);
+        }
+    }
+
+    public void evict(int productId, Collection<Fragment> fragments) {
+        if (fragments.isEmpty()) {
+            return;
+        }
+        LOG.debug("Evicting the fragments: {} of productId: {}", fragments, productId);
+        if (fillLeaseLayer.isEnabled()) {
+            fragments.forEach(fragment -> fillLeaseLayer.bump(fragment.getCacheName(), List.of(productId)));
+        }
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.keyCommands()
+                .del(fragments.stream().map(fragment -> key(fragment, productId)).toArray(byte[][]::new)));
+    }
+
+    private void write(Map<Fragment, Map<Integer, Object>> fragments) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            fragments.forEach((fragment, byProductId) -> byProductId.forEach((productId, value) -> {
+                if (value != null) {
+                    connection.stringCommands().set(key(fragment, productId), serializers.get(fragment).serialize(value),
+                            Expiration.from(ttlPolicies.get(fragment).ttlOf(value)), RedisStringCommands.SetOption.upsert());
+                }
+            }));
+            return null;
+        });
+    }
+
+    private byte[] key(Fragment fragment, int productId) {
+        return redisKeys.redisKey(fragment.getCacheName(), productId);
+    }
+
+    private void record(Fragment fragment, String result, int count) {
+        if (count > 0) {
+            Counter.builder("cache.fragments")
+                    .description("Fragment lookups answered by the cache or left to the owning service")
+                    .tags("fragment", fragment.getCacheName(), "result", result)
+                    .register(meterRegistry)
+                    .increment(count);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * CacheManager that stacks the given layers on top of the caches of the target manager.
+ * Layers are applied in list order, i.e. the first layer is the closest one to the target cache.
+ */
+public class LayeredCacheManager implements CacheManager {
+    private final CacheManager target;
+    private final List<CacheLayer> layers;
+    private final ConcurrentMap<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public LayeredCacheManager(CacheManager target, List<CacheLayer> layers) {
+        this.target = target;
+        this.layers = List.copyOf(layers);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createLayeredCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return target.getCacheNames();
+    }
+
+    private Cache createLayeredCache(String name) {
+        Cache cache = target.getCache(name);
+        if (cache == null) {
+            return null;
+        }
+        for (CacheLayer layer : layers) {
+            cache = layer.decorate(cache);
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,52 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import java.util.List;
+
+/**
+ * The in-process L1 tier of a {@link NearCache}, keyed by the string form of the cache keys.
+ */
+interface LocalStore {
+    Object getIfPresent(String key);
+
+    void put(String key, Object value);
+
+    void invalidate(String key);
+
+    void invalidateAll();
+
+    /**
+     * @return up to limit keys, the most likely to be read again first
+     */
+    List<String> hottestKeys(int limit);
+
+    static LocalStore of(com.github.benmanes.caffeine.cache.Cache<String, Object> cache) {
+        return new LocalStore() {
+            @Override
+            public Object getIfPresent(String key) {
+                return cache.getIfPresent(key);
+            }
+
+            @Override
+            public void put(String key, Object value) {
+                cache.put(key, value);
+            }
+
+            @Override
+            public void invalidate(String key) {
+                cache.invalidate(key);
+            }
+
+            @Override
+            public void invalidateAll() {
+                cache.invalidateAll();
+            }
+
+            @Override
+            public List<String> hottestKeys(int limit) {
+                return cache.policy().eviction()
+                        .map(eviction -> List.copyOf(eviction.hottest(limit).keySet()))
+                        .orElseGet(() -> cache.asMap().keySet().stream().limit(limit).toList());
+            }
+        };
+    }
+}
@@ -0,0 +1,280 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Two-tier cache: an in-process, bounded L1 in front of the shared Redis cache (L2), held on the heap
+ * or serialized off-heap (see {@link OffHeapSlabStore}).
+ * Reads are served from L1 when possible and L1 is filled on every L2 hit or load.
+ * Writes go to both tiers and are broadcast so that the other replicas drop their L1 copy.
+ * A value read or loaded from L2 is not kept in L1 if any entry has been written or evicted in the meantime,
+ * since it may predate that write. Writes invalidate before and after their L2 operation, so that a read
+ * racing the L2 operation cannot leave the previous value in L1.
+ */
+public class NearCache extends DelegatingCache {
+    private final LocalStore local;
+    private final NearCacheLayer layer;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    NearCache(Cache target, LocalStore local, NearCacheLayer layer) {
+        super(target);
+        this.local = local;
+        this.layer = layer;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        Object value = local.getIfPresent(localKey(key));
+        if (value != null) {
+            return new SimpleValueWrapper(value);
+        }
+        long seen = invalidations.get();
+        ValueWrapper wrapper = target.get(key);
+        if (wrapper != null && wrapper.get() != null) {
+            fillLocal(key, wrapper.get(), seen);
+        }
+        return wrapper;
+    }
+
+    @Override
+    public ValueWrapper getLocal(Object key) {
+        Object value = local.getIfPresent(localKey(key));
+        return (value != null) ? new SimpleValueWrapper(value) : null;
+    }
+
+    @Override
+    public Map<Object, ValueWrapper> getAll(Collection<?> keys) {
+        Map<Object, ValueWrapper> found = new LinkedHashMap<>();
+        List<Object> misses = new ArrayList<>();
+        for (Object key : keys) {
+            Object value = local.getIfPresent(localKey(key));
+            if (value != null) {
+                found.put(key, new SimpleValueWrapper(value));
+            } else {
+                misses.add(key);
+            }
+        }
+        if (!misses.isEmpty()) {
+            long seen = invalidations.get();
+            super.getAll(misses).forEach((key, wrapper) -> {
+                if (wrapper.get() != null) {
+                    fillLocal(key, wrapper.get(), seen);
+                }
+                found.put(key, wrapper);
+            });
+        }
+        return found;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = (wrapper != null) ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        Object value = local.getIfPresent(localKey(key));
+        if (value != null) {
+            return (T) value;
+        }
+        long seen = invalidations.get();
+        T loaded = target.get(key, valueLoader);
+        if (loaded != null) {
+            fillLocal(key, loaded, seen);
+        }
+        return loaded;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        Object value = local.getIfPresent(localKey(key));
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        long seen = invalidations.get();
+        return target.retrieve(key).thenApply(retrieved -> {
+            if (retrieved != null) {
+                fillLocal(key, retrieved, seen);
+            }
+            return retrieved;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        Object value = local.getIfPresent(localKey(key));
+        if (value != null) {
+            return CompletableFuture.completedFuture((T) value);
+        }
+        long seen = invalidations.get();
+        return target.retrieve(key, valueLoader).thenApply(retrieved -> {
+            if (retrieved != null) {
+                fillLocal(key, retrieved, seen);
+            }
+            return retrieved;
+        });
+    }
+
+    @Override
+    public boolean putIfValid(Object key, Object value, Object token) {
+        long seen = invalidations.get();
+        boolean stored = super.putIfValid(key, value, token);
+        if (stored) {
+            fillLocal(key, value, seen);
+            layer.publishEviction(getName(), localKey(key));
+        }
+        return stored;
+    }
+
+    @Override
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        long seen = invalidations.get();
+        Set<Object> stored = super.putAllIfValid(values, tokens);
+        List<String> keys = new ArrayList<>(stored.size());
+        stored.forEach(key -> {
+            fillLocal(key, values.get(key), seen);
+            keys.add(localKey(key));
+        });
+        layer.publishEvictions(getName(), keys);
+        return stored;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        invalidations.incrementAndGet();
+        target.put(key, value);
+        invalidations.incrementAndGet();
+        if (value != null) {
+            local.put(localKey(key), value);
+        } else {
+            local.invalidate(localKey(key));
+        }
+        layer.publishEviction(getName(), localKey(key));
+    }
+
+    @Override
+    public void putAll(Map<?, ?> values) {
+        invalidations.incrementAndGet();
+        super.putAll(values);
+        invalidations.incrementAndGet();
+        List<String> keys = new ArrayList<>(values.size());
+        values.forEach((key, value) -> {
+            if (value != null) {
+                local.put(localKey(key), value);
+            } else {
+                local.invalidate(localKey(key));
+            }
+            keys.add(localKey(key));
+        });
+        layer.publishEvictions(getName(), keys);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        invalidations.incrementAndGet();
+        ValueWrapper existing = target.putIfAbsent(key, value);
+        invalidateLocal(key);
+        if (existing == null) {
+            layer.publishEviction(getName(), localKey(key));
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        invalidations.incrementAndGet();
+        local.invalidate(localKey(key));
+        target.evict(key);
+        invalidateLocal(key);
+        layer.publishEviction(getName(), localKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        invalidations.incrementAndGet();
+        local.invalidate(localKey(key));
+        boolean evicted = target.evictIfPresent(key);
+        invalidateLocal(key);
+        layer.publishEviction(getName(), localKey(key));
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        invalidations.incrementAndGet();
+        local.invalidateAll();
+        target.clear();
+        invalidations.incrementAndGet();
+        local.invalidateAll();
+        layer.publishClear(getName());
+    }
+
+    @Override
+    public boolean invalidate() {
+        invalidations.incrementAndGet();
+        local.invalidateAll();
+        boolean invalidated = target.invalidate();
+        invalidations.incrementAndGet();
+        local.invalidateAll();
+        layer.publishClear(getName());
+        return invalidated;
+    }
+
+    /**
+     * Drops the L1 copy only, used when another replica notifies a write on the shared tier.
+     */
+    void evictLocal(String key) {
+        invalidations.incrementAndGet();
+        local.invalidate(key);
+    }
+
+    void clearLocal() {
+        invalidations.incrementAndGet();
+        local.invalidateAll();
+    }
+
+    /**
+     * Also undoes the fill when an invalidation slips in between the check and the put.
+     */
+    private void fillLocal(Object key, Object value, long seen) {
+        if (invalidations.get() == seen) {
+            local.put(localKey(key), value);
+            if (invalidations.get() != seen) {
+                local.invalidate(localKey(key));
+            }
+        }
+    }
+
+    /**
+     * Run again once the write on L2 is done: a read that started after the first invalidation
+     * may have filled L1 with the value L2 held before the write.
+     */
+    private void invalidateLocal(Object key) {
+        invalidations.incrementAndGet();
+        local.invalidate(localKey(key));
+    }
+
+    private static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,158 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoints the hottest entries of the near caches, at intervals and on shutdown, so that a restarted replica
+ * starts with a warm L1. The values are not taken from the L1 but read again from Redis, with their remaining
+ * time to live, in a single pipeline: the checkpoint holds the stored bytes and the Redis expiry of each entry.
+ * A checkpoint is written to "directory/cacheName.checkpoint" and read back by the next instance
+ * through a {@link WarmLocalStore}, without the entries written or evicted in the meantime: their invalidations
+ * were published while the instance was down. The {@link FillLeaseLayer} counters tell these entries, so checkpoints
+ * require lease-based fills.
+ */
+@Component
+public class NearCacheCheckpointer implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(NearCacheCheckpointer.class);
+
+    private final ConcurrentMap<String, Checkpointed> caches = new ConcurrentHashMap<>();
+    private final StringRedisTemplate redisTemplate;
+    private final FillLeaseLayer fillLeaseLayer;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Path directory;
+    private final int maxEntries;
+    private final Duration maxAge;
+    private final ScheduledExecutorService scheduler;
+
+    private record Checkpointed(LocalStore local, PipelinedRedisCache redisCache) {
+    }
+
+    @Autowired
+    public NearCacheCheckpointer(StringRedisTemplate redisTemplate, FillLeaseLayer fillLeaseLayer, MeterRegistry meterRegistry,
+                                 @Value("${app.cache.near.checkpoint.enabled}") boolean enabled,
+                                 @Value("${app.cache.near.checkpoint.directory}") Path directory,
+                                 @Value("${app.cache.near.checkpoint.interval}") Duration interval,
+                                 @Value("${app.cache.near.checkpoint.max-entries}") int maxEntries,
+                                 @Value("${app.cache.near.checkpoint.max-age}") Duration maxAge) {
+        this.redisTemplate = redisTemplate;
+        this.fillLeaseLayer = fillLeaseLayer;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled && fillLeaseLayer.isEnabled();
+        if (enabled && !fillLeaseLayer.isEnabled()) {
+            LOG.warn("Near cache checkpoints disabled, they require lease-based fills");
+        }
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("cache-checkpoint-"));
+        if (this.enabled) {
+            scheduler.scheduleWithFixedDelay(this::checkpoint, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the L1 store warmed from the checkpoint of the cache, the given store if checkpoints are disabled
+     */
+    LocalStore attach(String cacheName, LocalStore local, PipelinedRedisCache redisCache) {
+        if (!enabled || redisCache == null) {
+            return local;
+        }
+        caches.put(cacheName, new Checkpointed(local, redisCache));
+        WarmCheckpoint checkpoint = open(cacheName);
+        Counter restores = Counter.builder("cache.checkpoint.restores")
+                .description("Values restored into the near cache from the checkpoint of the previous instance")
+                .tags("cache", cacheName)
+                .register(meterRegistry);
+        return new WarmLocalStore(local, checkpoint, redisCache::deserialize, restores);
+    }
+
+    /**
+     * Opens the checkpoint of the cache, without the entries that have been written or evicted since it was taken.
+     */
+    public WarmCheckpoint open(String cacheName) {
+        WarmCheckpoint checkpoint = WarmCheckpoint.open(path(cacheName), maxAge);
+        if (!checkpoint.isEmpty()) {
+            Set<String> keys = checkpoint.keys();
+            Duration elapsed = Duration.ofMillis(System.currentTimeMillis() - checkpoint.getCreatedAt());
+            checkpoint.retain(fillLeaseLayer.unchangedSince(cacheName, checkpoint.getFillSequence(), elapsed, keys));
+            LOG.info("Restoring {} of the {} entries checkpointed for cache: {}", checkpoint.keys().size(), keys.size(), cacheName);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Writes the checkpoint of every near cache, a failure only skips the cache: its previous checkpoint is kept.
+     */
+    public void checkpoint() {
+        caches.forEach((cacheName, cache) -> {
+            try {
+                // Read first, so that a write made while the values are read drops them on restore
+                long fillSequence = fillLeaseLayer.readSequence(cacheName);
+                List<WarmCheckpoint.Entry> entries = readEntries(cache, cache.local().hottestKeys(maxEntries));
+                WarmCheckpoint.write(path(cacheName), fillSequence, entries);
+                LOG.debug("Checkpointed {} entries of cache: {}", entries.size(), cacheName);
+            } catch (IOException | RuntimeException ex) {
+                LOG.warn("Failed to checkpoint the cache: {}, {}", cacheName, ex.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        checkpoint();
+    }
+
+    /**
+     * Entries no longer in Redis are left out, the others expire with their Redis entry.
+     */
+    private List<WarmCheckpoint.Entry> readEntries(Checkpointed cache, List<String> keys) {
+        List<WarmCheckpoint.Entry> entries = new ArrayList<>();
+        if (keys.isEmpty()) {
+            return entries;
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] redisKey = cache.redisCache().redisKey(key);
+                connection.stringCommands().get(redisKey);
+                connection.keyCommands().pTtl(redisKey);
+            }
+            return null;
+        }, null);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < keys.size(); i++) {
+            if (results.get(2 * i) instanceof byte[] value && results.get(2 * i + 1) instanceof Long ttl && ttl != -2) {
+                entries.add(new WarmCheckpoint.Entry(keys.get(i), value, (ttl == -1) ? WarmCheckpoint.NO_EXPIRY : now + ttl));
+            }
+        }
+        return entries;
+    }
+
+    private Path path(String cacheName) {
+        return directory.resolve(cacheName + ".checkpoint");
+    }
+}
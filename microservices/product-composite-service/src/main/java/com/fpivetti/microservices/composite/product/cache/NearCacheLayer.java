@@ -0,0 +1,260 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import com.fpivetti.api.composite.product.ProductAggregateDto;
+import com.fpivetti.api.composite.product.RecommendationSummaryDto;
+import com.fpivetti.api.composite.product.ReviewSummaryDto;
+import com.fpivetti.api.composite.product.ServiceAddressesDto;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the {@link NearCache} instances and keeps their L1 tiers coherent across replicas.
+ * Every write on a near cache is published on a Redis pub/sub topic as "instanceId|cacheName|key"
+ * (an empty key meaning "clear the whole cache"); each replica evicts its own L1 copy on receipt.
+ */
+@Component
+public class NearCacheLayer implements CacheLayer, MessageListener {
+    private static final Logger LOG = LoggerFactory.getLogger(NearCacheLayer.class);
+    // Rough per-object heap overheads used to estimate the weight of a cached aggregate
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int DEFAULT_WEIGHT = 1024;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, NearCache> caches = new ConcurrentHashMap<>();
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long maxEntries;
+    private final long maxWeight;
+    private final Duration expireAfterWrite;
+    private final String topic;
+    private final Store store;
+    private final long offHeapCapacity;
+    private final int offHeapSlabSize;
+    private final NearCacheCheckpointer checkpointer;
+
+    /**
+     * HEAP keeps the values as objects, bounded by maxEntries and maxWeight, OFF_HEAP keeps them serialized
+     * in an {@link OffHeapSlabStore} of offHeapCapacity bytes.
+     */
+    public enum Store { HEAP, OFF_HEAP }
+
+    @Autowired
+    public NearCacheLayer(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry, NearCacheCheckpointer checkpointer,
+                          @Value("${app.cache.near.enabled}") boolean enabled,
+                          @Value("${app.cache.near.max-entries}") long maxEntries,
+                          @Value("${app.cache.near.max-weight-bytes}") long maxWeight,
+                          @Value("${app.cache.near.expire-after-write}") Duration expireAfterWrite,
+                          @Value("${app.cache.near.invalidation-topic}") String topic,
+                          @Value("${app.cache.near.store}") Store store,
+                          @Value("${app.cache.near.off-heap.capacity-bytes}") long offHeapCapacity,
+                          @Value("${app.cache.near.off-heap.slab-size-bytes}") int offHeapSlabSize) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.expireAfterWrite = expireAfterWrite;
+        this.topic = topic;
+        this.store = store;
+        this.offHeapCapacity = offHeapCapacity;
+        this.offHeapSlabSize = offHeapSlabSize;
+        this.checkpointer = checkpointer;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!enabled) {
+            return cache;
+        }
+        PipelinedRedisCache redisCache = redisCache(cache);
+        LocalStore local;
+        if (store == Store.OFF_HEAP && redisCache != null) {
+            local = offHeapStore(cache.getName(), redisCache);
+        } else {
+            if (store == Store.OFF_HEAP) {
+                LOG.warn("No Redis codec below the near cache: {}, its values are kept on the heap", cache.getName());
+            }
+            local = heapStore(cache.getName());
+        }
+        local = checkpointer.attach(cache.getName(), local, redisCache);
+
+        NearCache nearCache = new NearCache(cache, local, this);
+        caches.put(cache.getName(), nearCache);
+        LOG.debug("Near cache enabled for cache: {}, store: {}", cache.getName(), store);
+        return nearCache;
+    }
+
+    private LocalStore heapStore(String cacheName) {
+        // Caffeine cannot bound both size and weight, so every entry weighs at least maxWeight / maxEntries:
+        // this way the weight limit also caps the number of entries
+        long minWeight = Math.max(1, maxWeight / maxEntries);
+        com.github.benmanes.caffeine.cache.Cache<String, Object> local = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .<String, Object>weigher((key, value) -> (int) Math.min(Integer.MAX_VALUE, Math.max(minWeight, weigh(value))))
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, local, cacheName, Tags.of("tier", "near"));
+        return LocalStore.of(local);
+    }
+
+    /**
+     * The values are stored with the codec of the Redis cache, the metrics mirror the Caffeine ones.
+     */
+    private LocalStore offHeapStore(String cacheName, PipelinedRedisCache redisCache) {
+        OffHeapSlabStore local = new OffHeapSlabStore(offHeapCapacity, offHeapSlabSize, expireAfterWrite,
+                redisCache::serialize, redisCache::deserialize);
+        Tags tags = Tags.of("cache", cacheName, "tier", "near");
+        FunctionCounter.builder("cache.gets", local, OffHeapSlabStore::hitCount).tags(tags).tag("result", "hit")
+                .description("The number of times cache lookup methods have returned a cached value.").register(meterRegistry);
+        FunctionCounter.builder("cache.gets", local, OffHeapSlabStore::missCount).tags(tags).tag("result", "miss")
+                .description("The number of times cache lookup methods have returned an uncached value.").register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", local, OffHeapSlabStore::evictionCount).tags(tags)
+                .description("The number of entries evicted to make room for new ones.").register(meterRegistry);
+        Gauge.builder("cache.size", local, OffHeapSlabStore::size).tags(tags)
+                .description("The number of entries in the cache.").register(meterRegistry);
+        Gauge.builder("cache.off.heap.used", local, OffHeapSlabStore::usedBytes).tags(tags).baseUnit("bytes")
+                .description("The off-heap bytes taken by the live entries.").register(meterRegistry);
+        return local;
+    }
+
+    private static PipelinedRedisCache redisCache(Cache cache) {
+        while (cache instanceof DelegatingCache layered) {
+            if (layered instanceof PipelinedRedisCache redisCache) {
+                return redisCache;
+            }
+            cache = layered.target;
+        }
+        return null;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 3);
+        if (parts.length != 3 || instanceId.equals(parts[0])) {
+            return;
+        }
+        NearCache nearCache = caches.get(parts[1]);
+        if (nearCache == null) {
+            return;
+        }
+        if (parts[2].isEmpty()) {
+            LOG.debug("Clearing the near cache: {}, requested by: {}", parts[1], parts[0]);
+            nearCache.clearLocal();
+        } else {
+            LOG.debug("Evicting key: {} from the near cache: {}, requested by: {}", parts[2], parts[1], parts[0]);
+            nearCache.evictLocal(parts[2]);
+        }
+    }
+
+    void publishEviction(String cacheName, String key) {
+        publish(instanceId + "|" + cacheName + "|" + key);
+    }
+
+    /**
+     * Publishes the evictions of several keys in a single pipeline.
+     */
+    void publishEvictions(String cacheName, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        byte[] channel = topic.getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.publish(channel, (instanceId + "|" + cacheName + "|" + key).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            // The L1 entries of the other replicas will still expire after expireAfterWrite
+            LOG.warn("Failed to publish the near cache invalidations of cache: {}, {}", cacheName, ex.getMessage());
+        }
+    }
+
+    void publishClear(String cacheName) {
+        publish(instanceId + "|" + cacheName + "|");
+    }
+
+    private void publish(String message) {
+        try {
+            redisTemplate.convertAndSend(topic, message);
+        } catch (Exception ex) {
+            // The L1 entries of the other replicas will still expire after expireAfterWrite
+            LOG.warn("Failed to publish the near cache invalidation: {}, {}", message, ex.getMessage());
+        }
+    }
+
+    private static long weigh(Object value) {
+        if (!(value instanceof ProductAggregateDto aggregate)) {
+            return DEFAULT_WEIGHT;
+        }
+        long weight = OBJECT_OVERHEAD + weigh(aggregate.getName());
+        weight += weighRecommendations(aggregate.getRecommendations());
+        weight += weighReviews(aggregate.getReviews());
+        ServiceAddressesDto addresses = aggregate.getServiceAddresses();
+        if (addresses != null) {
+            weight += OBJECT_OVERHEAD + weigh(addresses.getCompositeAddress()) + weigh(addresses.getProductAddress())
+                    + weigh(addresses.getRecommendationAddress()) + weigh(addresses.getReviewAddress());
+        }
+        return weight;
+    }
+
+    private static long weighRecommendations(List<RecommendationSummaryDto> recommendations) {
+        if (recommendations == null) {
+            return 0;
+        }
+        long weight = OBJECT_OVERHEAD;
+        for (RecommendationSummaryDto r : recommendations) {
+            weight += OBJECT_OVERHEAD + weigh(r.getAuthor()) + weigh(r.getContent());
+        }
+        return weight;
+    }
+
+    private static long weighReviews(List<ReviewSummaryDto> reviews) {
+        if (reviews == null) {
+            return 0;
+        }
+        long weight = OBJECT_OVERHEAD;
+        for (ReviewSummaryDto r : reviews) {
+            weight += OBJECT_OVERHEAD + weigh(r.getAuthor()) + weigh(r.getSubject()) + weigh(r.getContent());
+        }
+        return weight;
+    }
+
+    private static long weigh(String value) {
+        return (value == null) ? 0 : STRING_OVERHEAD + value.length();
+    }
+}
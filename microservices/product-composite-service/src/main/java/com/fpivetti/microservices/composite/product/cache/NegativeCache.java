@@ -0,0 +1,186 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import com.fpivetti.api.exceptions.NotFoundException;
+import org.springframework.cache.Cache;
+import org.springframework.cache.interceptor.CacheOperationInvoker;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Negative caching: when the value loader throws a {@link NotFoundException} a {@link Tombstone} is cached
+ * in place of the value, and the layers below store it like any other value. Tombstones found in the cache
+ * are turned back into a NotFoundException, or into a miss for the lookups without a value loader.
+ * Multi-key lookups return them as entries with a null value, so that the caller does not load them again,
+ * and multi-key writes store the tombstones they are given.
+ */
+public class NegativeCache extends DelegatingCache {
+    private final NegativeCacheLayer layer;
+
+    NegativeCache(Cache target, NegativeCacheLayer layer) {
+        super(target);
+        this.layer = layer;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper wrapper = target.get(key);
+        if (wrapper != null && wrapper.get() instanceof Tombstone) {
+            layer.recordTombstone(getName(), NegativeCacheLayer.HIT);
+            return null;
+        }
+        return wrapper;
+    }
+
+    @Override
+    public Map<Object, ValueWrapper> getAll(Collection<?> keys) {
+        Map<Object, ValueWrapper> found = new LinkedHashMap<>();
+        super.getAll(keys).forEach((key, wrapper) -> {
+            if (wrapper.get() instanceof Tombstone) {
+                layer.recordTombstone(getName(), NegativeCacheLayer.HIT);
+                found.put(key, new SimpleValueWrapper(null));
+            } else {
+                found.put(key, wrapper);
+            }
+        });
+        return found;
+    }
+
+    @Override
+    public void putAll(Map<?, ?> values) {
+        super.putAll(values);
+        values.values().stream()
+                .filter(Tombstone.class::isInstance)
+                .forEach(tombstone -> layer.recordTombstone(getName(), NegativeCacheLayer.STORED));
+    }
+
+    @Override
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        Set<Object> stored = super.putAllIfValid(values, tokens);
+        stored.stream()
+                .filter(key -> values.get(key) instanceof Tombstone)
+                .forEach(key -> layer.recordTombstone(getName(), NegativeCacheLayer.STORED));
+        return stored;
+    }
+
+    /**
+     * @throws NotFoundException if a tombstone is found
+     */
+    @Override
+    public ValueWrapper getLocal(Object key) {
+        ValueWrapper wrapper = super.getLocal(key);
+        if (wrapper != null && wrapper.get() instanceof Tombstone tombstone) {
+            layer.recordTombstone(getName(), NegativeCacheLayer.HIT);
+            throw new NotFoundException(tombstone.getMessage());
+        }
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = (wrapper != null) ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        AtomicBoolean loaded = new AtomicBoolean();
+        Object value = target.get(key, () -> {
+            loaded.set(true);
+            return load(valueLoader);
+        });
+        if (value instanceof Tombstone tombstone) {
+            layer.recordTombstone(getName(), loaded.get() ? NegativeCacheLayer.STORED : NegativeCacheLayer.HIT);
+            throw new NotFoundException(tombstone.getMessage());
+        }
+        return (T) value;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        return target.retrieve(key).thenApply(value -> {
+            if (value instanceof Tombstone) {
+                layer.recordTombstone(getName(), NegativeCacheLayer.HIT);
+                return null;
+            }
+            return value;
+        });
+    }
+
+    /**
+     * The returned future fails with a NotFoundException if a tombstone is found or stored.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        AtomicBoolean loaded = new AtomicBoolean();
+        CompletableFuture<Object> retrieved = target.retrieve(key, () -> {
+            loaded.set(true);
+            return load(valueLoader);
+        });
+        return retrieved.thenApply(value -> {
+            if (value instanceof Tombstone tombstone) {
+                layer.recordTombstone(getName(), loaded.get() ? NegativeCacheLayer.STORED : NegativeCacheLayer.HIT);
+                throw new NotFoundException(tombstone.getMessage());
+            }
+            return (T) value;
+        });
+    }
+
+    private static CompletableFuture<Object> load(Supplier<? extends CompletableFuture<?>> valueLoader) {
+        CompletableFuture<?> loading;
+        try {
+            loading = valueLoader.get();
+        } catch (RuntimeException ex) {
+            loading = CompletableFuture.failedFuture(ex);
+        }
+        return loading.handle((value, ex) -> {
+            if (ex == null) {
+                return value;
+            }
+            Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+            Tombstone tombstone = toTombstone(cause);
+            if (tombstone != null) {
+                return tombstone;
+            }
+            throw (ex instanceof CompletionException completion) ? completion : new CompletionException(ex);
+        });
+    }
+
+    private Object load(Callable<?> valueLoader) throws Exception {
+        try {
+            return valueLoader.call();
+        } catch (NotFoundException | CacheOperationInvoker.ThrowableWrapper ex) {
+            Tombstone tombstone = toTombstone(ex);
+            if (tombstone != null) {
+                return tombstone;
+            }
+            throw ex;
+        }
+    }
+
+    private static Tombstone toTombstone(Throwable ex) {
+        if (ex instanceof NotFoundException notFound) {
+            return new Tombstone(notFound.getMessage());
+        }
+        // The caching interceptor wraps the exceptions of the cached method
+        if (ex instanceof CacheOperationInvoker.ThrowableWrapper wrapper && wrapper.getOriginal() instanceof NotFoundException notFound) {
+            return new Tombstone(notFound.getMessage());
+        }
+        return null;
+    }
+}
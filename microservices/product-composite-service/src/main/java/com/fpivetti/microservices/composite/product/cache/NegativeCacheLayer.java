@@ -0,0 +1,57 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the {@link NegativeCache} instances and counts the tombstones they store and serve.
+ * The time to live of the tombstones is set by the cache configuration.
+ * Negative caching is off with the JSON codec format: the replicas it is meant for, during a rolling deploy,
+ * predate the tombstones and cannot read them.
+ */
+@Component
+public class NegativeCacheLayer implements CacheLayer {
+    private static final Logger LOG = LoggerFactory.getLogger(NegativeCacheLayer.class);
+    static final String STORED = "stored";
+    static final String HIT = "hit";
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+
+    @Autowired
+    public NegativeCacheLayer(MeterRegistry meterRegistry, @Value("${app.cache.negative.enabled}") boolean enabled,
+                              @Value("${app.cache.codec.format}") CacheValueSerializer.Format format) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled && format != CacheValueSerializer.Format.JSON;
+        if (enabled && !this.enabled) {
+            LOG.info("Negative caching disabled by the JSON codec format");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!enabled) {
+            return cache;
+        }
+        LOG.debug("Negative caching enabled for cache: {}", cache.getName());
+        return new NegativeCache(cache, this);
+    }
+
+    void recordTombstone(String cacheName, String result) {
+        Counter.builder("cache.tombstones")
+                .description("Tombstones stored for missing values and lookups answered by a tombstone")
+                .tags("cache", cacheName, "result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
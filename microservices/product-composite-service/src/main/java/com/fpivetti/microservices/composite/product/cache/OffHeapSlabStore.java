@@ -0,0 +1,373 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * L1 store keeping the values serialized in off-heap slabs: the heap only holds the index, an open addressing map
+ * from the int keys to the slab, offset and length of their value.
+ *
+ * The capacity is split into slabs of slabSize bytes, allocated as direct buffers on first use. Values are appended
+ * to the current slab; once it is full, the next one is picked by a CLOCK hand going over the slabs: the slabs read
+ * since the hand last passed are skipped, the first other one is emptied, dropping the entries it holds.
+ * Overwritten and invalidated values keep their space until their slab is emptied.
+ * Each entry is [key int][value length int][written at long][value], it expires expireAfterWrite after being written.
+ * Keys that are not ints, and values that do not fit in a slab, are not stored.
+ *
+ * Direct buffers count against -XX:MaxDirectMemorySize, which defaults to the max heap size.
+ */
+public class OffHeapSlabStore implements LocalStore {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapSlabStore.class);
+    public static final int MAX_SLAB_SIZE = 1 << 24;
+    private static final int MAX_SLABS = 1 << 15;
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES + Long.BYTES;
+
+    private final Function<Object, byte[]> serializer;
+    private final Function<byte[], Object> deserializer;
+    private final int slabSize;
+    private final long expireAfterWriteMillis;
+    private final ByteBuffer[] slabs;
+    private final int[] fills;
+    private final boolean[] referenced;
+    private final IntLongMap index = new IntLongMap();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private int allocated;
+    private int current = -1;
+    private int hand;
+    private long usedBytes;
+
+    public OffHeapSlabStore(long capacity, int slabSize, Duration expireAfterWrite,
+                            Function<Object, byte[]> serializer, Function<byte[], Object> deserializer) {
+        if (slabSize <= HEADER_LENGTH || slabSize > MAX_SLAB_SIZE) {
+            throw new IllegalArgumentException("Slab size must be between " + (HEADER_LENGTH + 1) + " and " + MAX_SLAB_SIZE + " bytes: " + slabSize);
+        }
+        long slabCount = capacity / slabSize;
+        if (slabCount < 1 || slabCount > MAX_SLABS) {
+            throw new IllegalArgumentException("Capacity must hold between 1 and " + MAX_SLABS + " slabs: " + capacity);
+        }
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.slabSize = slabSize;
+        this.expireAfterWriteMillis = expireAfterWrite.toMillis();
+        this.slabs = new ByteBuffer[(int) slabCount];
+        this.fills = new int[slabs.length];
+        this.referenced = new boolean[slabs.length];
+    }
+
+    @Override
+    public Object getIfPresent(String key) {
+        Integer intKey = intKey(key);
+        byte[] bytes = (intKey != null) ? read(intKey) : null;
+        if (bytes == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        try {
+            return deserializer.apply(bytes);
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to read the off-heap value of key: {}, {}", key, ex.getMessage());
+            invalidate(key);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, Object value) {
+        Integer intKey = intKey(key);
+        if (intKey == null) {
+            return;
+        }
+        byte[] bytes = serializer.apply(value);
+        synchronized (this) {
+            remove(intKey);
+            int length = HEADER_LENGTH + bytes.length;
+            if (length > slabSize) {
+                return;
+            }
+            if (current < 0 || fills[current] + length > slabSize) {
+                current = nextSlab();
+            }
+            int offset = fills[current];
+            slabs[current].putInt(offset, intKey)
+                    .putInt(offset + Integer.BYTES, bytes.length)
+                    .putLong(offset + 2 * Integer.BYTES, System.currentTimeMillis())
+                    .put(offset + HEADER_LENGTH, bytes);
+            fills[current] += length;
+            usedBytes += length;
+            index.put(intKey, location(current, offset, bytes.length));
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        Integer intKey = intKey(key);
+        if (intKey != null) {
+            synchronized (this) {
+                remove(intKey);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        index.clear();
+        Arrays.fill(fills, 0);
+        Arrays.fill(referenced, false);
+        usedBytes = 0;
+    }
+
+    /**
+     * The keys of the slabs read since the hand last passed come first.
+     */
+    @Override
+    public synchronized List<String> hottestKeys(int limit) {
+        List<String> keys = new ArrayList<>();
+        for (boolean read : new boolean[] {true, false}) {
+            for (int slab = 0; slab < allocated; slab++) {
+                if (referenced[slab] == read) {
+                    forEachLiveEntry(slab, key -> {
+                        if (keys.size() < limit) {
+                            keys.add(String.valueOf(key));
+                        }
+                    });
+                }
+            }
+        }
+        return keys;
+    }
+
+    public synchronized long size() {
+        return index.size();
+    }
+
+    /**
+     * @return the bytes taken by the live entries, headers included
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private synchronized byte[] read(int key) {
+        long location = index.get(key);
+        if (location == IntLongMap.MISSING) {
+            return null;
+        }
+        int slab = slab(location);
+        int offset = offset(location);
+        ByteBuffer buffer = slabs[slab];
+        if (System.currentTimeMillis() - buffer.getLong(offset + 2 * Integer.BYTES) >= expireAfterWriteMillis) {
+            remove(key);
+            return null;
+        }
+        byte[] bytes = new byte[length(location)];
+        buffer.get(offset + HEADER_LENGTH, bytes);
+        referenced[slab] = true;
+        return bytes;
+    }
+
+    private void remove(int key) {
+        long location = index.remove(key);
+        if (location != IntLongMap.MISSING) {
+            usedBytes -= HEADER_LENGTH + length(location);
+        }
+    }
+
+    /**
+     * Allocates the slabs until the capacity is reached, then empties the next slab not read since the hand last passed.
+     */
+    private int nextSlab() {
+        if (allocated < slabs.length) {
+            slabs[allocated] = ByteBuffer.allocateDirect(slabSize);
+            return allocated++;
+        }
+        while (true) {
+            int slab = hand;
+            hand = (hand + 1) % slabs.length;
+            if (slab == current && slabs.length > 1) {
+                continue;
+            }
+            if (referenced[slab]) {
+                referenced[slab] = false;
+                continue;
+            }
+            empty(slab);
+            return slab;
+        }
+    }
+
+    private void empty(int slab) {
+        forEachLiveEntry(slab, key -> {
+            remove(key);
+            evictions.increment();
+        });
+        fills[slab] = 0;
+    }
+
+    /**
+     * Skips the entries overwritten or invalidated since they were written, they are no longer in the index.
+     */
+    private void forEachLiveEntry(int slab, IntConsumer action) {
+        ByteBuffer buffer = slabs[slab];
+        int offset = 0;
+        while (offset < fills[slab]) {
+            int key = buffer.getInt(offset);
+            int length = buffer.getInt(offset + Integer.BYTES);
+            if (index.get(key) == location(slab, offset, length)) {
+                action.accept(key);
+            }
+            offset += HEADER_LENGTH + length;
+        }
+    }
+
+    private static long location(int slab, int offset, int length) {
+        return ((long) slab << 48) | ((long) offset << 24) | length;
+    }
+
+    private static int slab(long location) {
+        return (int) (location >>> 48);
+    }
+
+    private static int offset(long location) {
+        return (int) (location >>> 24) & (MAX_SLAB_SIZE - 1);
+    }
+
+    private static int length(long location) {
+        return (int) location & (MAX_SLAB_SIZE - 1);
+    }
+
+    private static Integer intKey(String key) {
+        try {
+            return Integer.valueOf(key);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Open addressing int to long map with linear probing, MISSING marking the free slots.
+     */
+    private static final class IntLongMap {
+        static final long MISSING = -1;
+        private static final int INITIAL_CAPACITY = 16;
+
+        private int[] keys;
+        private long[] values;
+        private int size;
+
+        IntLongMap() {
+            clear();
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return MISSING;
+        }
+
+        void put(int key, long value) {
+            if (2 * (size + 1) > keys.length) {
+                resize(2 * keys.length);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != MISSING) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        long remove(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    long removed = values[i];
+                    shiftBack(i);
+                    size--;
+                    return removed;
+                }
+            }
+            return MISSING;
+        }
+
+        void clear() {
+            keys = new int[INITIAL_CAPACITY];
+            values = new long[INITIAL_CAPACITY];
+            Arrays.fill(values, MISSING);
+            size = 0;
+        }
+
+        /**
+         * Backward shift deletion: the entries of the probe sequence following the hole are moved back into it
+         * when their home slot allows it, so that no tombstone is needed.
+         */
+        private void shiftBack(int hole) {
+            int mask = keys.length - 1;
+            for (int i = (hole + 1) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+                int home = hash(keys[i]) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            values[hole] = MISSING;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new int[capacity];
+            values = new long[capacity];
+            Arrays.fill(values, MISSING);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != MISSING) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
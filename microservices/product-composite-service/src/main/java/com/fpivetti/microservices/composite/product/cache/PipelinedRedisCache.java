@@ -0,0 +1,126 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.util.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Multi-key reads and writes on a Redis cache, one round trip per batch. Keys and values are written exactly
+ * like the Redis cache itself would: same key prefix, same serializers and same time to live function.
+ * The retrieve operations are served the same way without blocking, on the reactive Redis client.
+ */
+public class PipelinedRedisCache extends DelegatingCache {
+    private final RedisCacheConfiguration configuration;
+    private final PipelinedRedisLayer layer;
+
+    PipelinedRedisCache(Cache target, RedisCacheConfiguration configuration, PipelinedRedisLayer layer) {
+        super(target);
+        this.configuration = configuration;
+        this.layer = layer;
+    }
+
+    @Override
+    public Map<Object, ValueWrapper> getAll(Collection<?> keys) {
+        Map<Object, ValueWrapper> found = new LinkedHashMap<>();
+        if (keys.isEmpty()) {
+            return found;
+        }
+        List<Object> keyList = new ArrayList<>(keys);
+        byte[][] redisKeys = keyList.stream().map(this::redisKey).toArray(byte[][]::new);
+        List<byte[]> values = layer.mGet(getName(), redisKeys);
+        for (int i = 0; i < keyList.size(); i++) {
+            byte[] bytes = (values != null) ? values.get(i) : null;
+            if (bytes != null) {
+                found.put(keyList.get(i), new SimpleValueWrapper(deserialize(bytes)));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        return layer.getAsync(redisKey(key)).thenApply(bytes -> (bytes != null) ? deserialize(bytes) : null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return retrieve(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((T) cached);
+            }
+            return valueLoader.get().thenCompose(value -> putAsync(key, value).thenApply(done -> value));
+        });
+    }
+
+    /**
+     * Null values are skipped, the Redis caches do not store them.
+     */
+    CompletableFuture<Void> putAsync(Object key, Object value) {
+        if (value == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return layer.setAsync(redisKey(key), serialize(value), timeToLive(key, value));
+    }
+
+    /**
+     * Null values are skipped, the Redis caches do not store them.
+     */
+    @Override
+    public void putAll(Map<?, ?> values) {
+        Map<byte[], Map.Entry<byte[], Duration>> entries = new LinkedHashMap<>();
+        values.forEach((key, value) -> {
+            if (value != null) {
+                entries.put(redisKey(key), new AbstractMap.SimpleImmutableEntry<>(serialize(value), timeToLive(key, value)));
+            }
+        });
+        if (!entries.isEmpty()) {
+            layer.setAll(getName(), entries);
+        }
+    }
+
+    Object deserialize(byte[] bytes) {
+        return configuration.getValueSerializationPair().read(ByteBuffer.wrap(bytes));
+    }
+
+    byte[] serialize(Object value) {
+        return ByteUtils.getBytes(configuration.getValueSerializationPair().write(value));
+    }
+
+    Duration timeToLive(Object key, Object value) {
+        return configuration.getTtlFunction().getTimeToLive(key, value);
+    }
+
+    /**
+     * Without a layer guarding the fills, they are written like any other put, in a single pipeline.
+     */
+    @Override
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        putAll(values);
+        Set<Object> stored = new LinkedHashSet<>();
+        values.forEach((key, value) -> {
+            if (value != null) {
+                stored.add(key);
+            }
+        });
+        return stored;
+    }
+
+    byte[] redisKey(Object key) {
+        return RedisCacheKeys.redisKey(configuration, getName(), key);
+    }
+}
@@ -0,0 +1,106 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates the {@link PipelinedRedisCache} instances, always placed right on top of the Redis caches,
+ * and runs their multi-key commands: a single MGET for the reads and a single pipeline of SET PX for the writes.
+ * It also runs their non-blocking single-key commands, on the reactive Redis client.
+ */
+@Component
+public class PipelinedRedisLayer implements CacheLayer {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedRedisLayer.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public PipelinedRedisLayer(StringRedisTemplate redisTemplate, ReactiveStringRedisTemplate reactiveRedisTemplate,
+                               MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        // The multi-key writes are not transaction aware, the single-key operations still are
+        Cache redisCache = (cache instanceof TransactionAwareCacheDecorator decorator) ? decorator.getTargetCache() : cache;
+        if (!(redisCache instanceof RedisCache)) {
+            return cache;
+        }
+        LOG.debug("Multi-key operations enabled for cache: {}", cache.getName());
+        return new PipelinedRedisCache(cache, ((RedisCache) redisCache).getCacheConfiguration(), this);
+    }
+
+    /**
+     * @return the values of the keys, in the same order, null for the missing keys
+     */
+    List<byte[]> mGet(String cacheName, byte[][] keys) {
+        recordBatch(cacheName, "get", keys.length);
+        return redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(keys));
+    }
+
+    /**
+     * @param values the value and the time to live of each key, a zero or negative time to live meaning no expiry
+     */
+    void setAll(String cacheName, Map<byte[], Map.Entry<byte[], Duration>> values) {
+        recordBatch(cacheName, "put", values.size());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                Duration ttl = value.getValue();
+                Expiration expiration = (ttl != null && !ttl.isNegative() && !ttl.isZero())
+                        ? Expiration.from(ttl) : Expiration.persistent();
+                connection.stringCommands().set(key, value.getKey(), expiration, RedisStringCommands.SetOption.upsert());
+            });
+            return null;
+        });
+    }
+
+    /**
+     * @return the value of the key, null if it is missing
+     */
+    CompletableFuture<byte[]> getAsync(byte[] key) {
+        return reactiveRedisTemplate.execute(connection -> connection.stringCommands().get(ByteBuffer.wrap(key)))
+                .next()
+                .map(ByteUtils::getBytes)
+                .toFuture();
+    }
+
+    CompletableFuture<Void> setAsync(byte[] key, byte[] value, Duration ttl) {
+        Expiration expiration = (ttl != null && !ttl.isNegative() && !ttl.isZero()) ? Expiration.from(ttl) : Expiration.persistent();
+        return reactiveRedisTemplate.execute(connection -> connection.stringCommands()
+                        .set(ByteBuffer.wrap(key), ByteBuffer.wrap(value), expiration, RedisStringCommands.SetOption.upsert()))
+                .then()
+                .toFuture();
+    }
+
+    private void recordBatch(String cacheName, String operation, int size) {
+        DistributionSummary.builder("cache.batch.keys")
+                .description("Number of keys read or written by a single multi-key operation")
+                .tags("cache", cacheName, "operation", operation)
+                .register(meterRegistry)
+                .record(size);
+    }
+}
@@ -0,0 +1,51 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The Redis keys of the cache entries, built like the Redis caches build them, from the configuration
+ * of the cache in the {@link RedisCacheManager}: for the code reaching those entries without the cache.
+ */
+@Component
+public class RedisCacheKeys {
+    private final RedisCacheManager cacheManager;
+    private final ConcurrentMap<String, RedisCacheConfiguration> configurations = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RedisCacheKeys(RedisCacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cache is not configured in the cache manager
+     */
+    public byte[] redisKey(String cacheName, Object key) {
+        return redisKey(configurations.computeIfAbsent(cacheName, this::configuration), cacheName, key);
+    }
+
+    static byte[] redisKey(RedisCacheConfiguration configuration, String cacheName, Object key) {
+        String prefixed = configuration.usePrefix() ? configuration.getKeyPrefixFor(cacheName) + key : String.valueOf(key);
+        return ByteUtils.getBytes(configuration.getKeySerializationPair().write(prefixed));
+    }
+
+    private RedisCacheConfiguration configuration(String cacheName) {
+        Cache cache = cacheManager.getCacheNames().contains(cacheName) ? cacheManager.getCache(cacheName) : null;
+        if (cache instanceof TransactionAwareCacheDecorator decorator) {
+            cache = decorator.getTargetCache();
+        }
+        if (!(cache instanceof RedisCache redisCache)) {
+            throw new IllegalArgumentException("No Redis cache configured with name: " + cacheName);
+        }
+        return redisCache.getCacheConfiguration();
+    }
+}
@@ -0,0 +1,158 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Stale-while-revalidate: entries read within the refresh window before their Redis expiry are returned
+ * as they are, while the value loader rebuilds them in the background through the {@link CacheRefresher}.
+ * The remaining time to live of each entry is read once with PTTL and then tracked in memory,
+ * so that hits served by the near cache do not need an extra round trip.
+ */
+public class RefreshAheadCache extends DelegatingCache {
+    private final com.github.benmanes.caffeine.cache.Cache<String, Long> expiries;
+    private final RefreshAheadLayer layer;
+
+    RefreshAheadCache(Cache target, com.github.benmanes.caffeine.cache.Cache<String, Long> expiries, RefreshAheadLayer layer) {
+        super(target);
+        this.expiries = expiries;
+        this.layer = layer;
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        T value = target.get(key, valueLoader);
+        if (value != null && isRefreshDue(key)) {
+            layer.getRefresher().refresh(getName(), key, "refresh-ahead", () -> refresh(key, valueLoader));
+        }
+        return value;
+    }
+
+    /**
+     * Whether the entry is due for a refresh is found out after the value has been returned,
+     * reading its time to live without blocking if it is not tracked yet.
+     */
+    @Override
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return target.retrieve(key, valueLoader).whenComplete((value, ex) -> {
+            if (value != null) {
+                refreshIfDue(key, () -> valueLoader.get().join());
+            }
+        });
+    }
+
+    /**
+     * Local hits are returned only if their entry is known not to be due for a refresh, since
+     * finding out whether it is may take a round trip to Redis.
+     */
+    @Override
+    public ValueWrapper getLocal(Object key) {
+        Long expiresAt = expiries.getIfPresent(String.valueOf(key));
+        if (expiresAt == null || expiresAt - System.currentTimeMillis() <= layer.getWindow().toMillis()) {
+            return null;
+        }
+        return super.getLocal(key);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        target.put(key, value);
+        expiries.invalidate(String.valueOf(key));
+    }
+
+    @Override
+    public void putAll(Map<?, ?> values) {
+        super.putAll(values);
+        values.keySet().forEach(key -> expiries.invalidate(String.valueOf(key)));
+    }
+
+    @Override
+    public boolean putIfValid(Object key, Object value, Object token) {
+        boolean stored = super.putIfValid(key, value, token);
+        expiries.invalidate(String.valueOf(key));
+        return stored;
+    }
+
+    @Override
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        Set<Object> stored = super.putAllIfValid(values, tokens);
+        values.keySet().forEach(key -> expiries.invalidate(String.valueOf(key)));
+        return stored;
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = target.putIfAbsent(key, value);
+        expiries.invalidate(String.valueOf(key));
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        target.evict(key);
+        expiries.invalidate(String.valueOf(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = target.evictIfPresent(key);
+        expiries.invalidate(String.valueOf(key));
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        target.clear();
+        expiries.invalidateAll();
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = target.invalidate();
+        expiries.invalidateAll();
+        return invalidated;
+    }
+
+    private void refreshIfDue(Object key, Callable<?> valueLoader) {
+        Long expiresAt = expiries.getIfPresent(String.valueOf(key));
+        CompletableFuture<Long> expiry = (expiresAt != null) ? CompletableFuture.completedFuture(expiresAt)
+                : layer.readExpiryAsync(getName(), String.valueOf(key)).thenApply(readExpiresAt -> {
+                    expiries.put(String.valueOf(key), readExpiresAt);
+                    return readExpiresAt;
+                });
+        expiry.thenAccept(readExpiresAt -> {
+            if (readExpiresAt - System.currentTimeMillis() <= layer.getWindow().toMillis()) {
+                layer.getRefresher().refresh(getName(), key, "refresh-ahead", () -> refresh(key, valueLoader));
+            }
+        });
+    }
+
+    private boolean isRefreshDue(Object key) {
+        long expiresAt = expiries.get(String.valueOf(key), k -> layer.readExpiry(getName(), k));
+        return expiresAt - System.currentTimeMillis() <= layer.getWindow().toMillis();
+    }
+
+    private void refresh(Object key, Callable<?> valueLoader) {
+        // Another replica may have refreshed the entry already, the tracked expiry is only a local view
+        long expiresAt = layer.readExpiry(getName(), String.valueOf(key));
+        if (expiresAt - System.currentTimeMillis() > layer.getWindow().toMillis()) {
+            expiries.put(String.valueOf(key), expiresAt);
+            return;
+        }
+        Object token = fillToken(key);
+        Object value;
+        try {
+            value = valueLoader.call();
+        } catch (Exception ex) {
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        }
+        if (value != null) {
+            putIfValid(key, value, token);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link RefreshAheadCache} instances and reads the entries' remaining time to live from Redis.
+ */
+@Component
+public class RefreshAheadLayer implements CacheLayer {
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshAheadLayer.class);
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final CacheRefresher refresher;
+    private final RedisCacheKeys redisKeys;
+    private final boolean enabled;
+    private final Duration window;
+    private final long maxTrackedEntries;
+
+    @Autowired
+    public RefreshAheadLayer(StringRedisTemplate redisTemplate, ReactiveStringRedisTemplate reactiveRedisTemplate,
+                             CacheRefresher refresher, RedisCacheKeys redisKeys,
+                             @Value("${app.cache.refresh.ahead.enabled}") boolean enabled,
+                             @Value("${app.cache.refresh.ahead.window}") Duration window,
+                             @Value("${app.cache.refresh.ahead.max-tracked-entries}") long maxTrackedEntries) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.refresher = refresher;
+        this.redisKeys = redisKeys;
+        this.enabled = enabled;
+        this.window = window;
+        this.maxTrackedEntries = maxTrackedEntries;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!enabled) {
+            return cache;
+        }
+        com.github.benmanes.caffeine.cache.Cache<String, Long> expiries = Caffeine.newBuilder()
+                .maximumSize(maxTrackedEntries)
+                .expireAfter(new UntilExpiry())
+                .build();
+        LOG.debug("Refresh-ahead enabled for cache: {}, window: {}", cache.getName(), window);
+        return new RefreshAheadCache(cache, expiries, this);
+    }
+
+    CacheRefresher getRefresher() {
+        return refresher;
+    }
+
+    Duration getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the epoch millis at which the Redis entry expires, now if the entry does not exist
+     */
+    long readExpiry(String cacheName, String key) {
+        try {
+            byte[] redisKey = redisKeys.redisKey(cacheName, key);
+            Long ttl = redisTemplate.execute((RedisCallback<Long>) connection -> connection.keyCommands().pTtl(redisKey));
+            if (ttl == null || ttl == -1) {
+                return NO_EXPIRY;
+            }
+            return System.currentTimeMillis() + Math.max(0, ttl);
+        } catch (Exception ex) {
+            LOG.warn("Failed to read the time to live of {} in cache {}: {}", key, cacheName, ex.getMessage());
+            // Check again once the refresh window has passed
+            return System.currentTimeMillis() + 2 * window.toMillis();
+        }
+    }
+
+    /**
+     * Non-blocking readExpiry.
+     */
+    CompletableFuture<Long> readExpiryAsync(String cacheName, String key) {
+        ByteBuffer keyBuffer = ByteBuffer.wrap(redisKeys.redisKey(cacheName, key));
+        return reactiveRedisTemplate.execute(connection -> connection.keyCommands().pTtl(keyBuffer))
+                .next()
+                .map(ttl -> (ttl == -1) ? NO_EXPIRY : System.currentTimeMillis() + Math.max(0, ttl))
+                .defaultIfEmpty(NO_EXPIRY)
+                .onErrorResume(ex -> {
+                    LOG.warn("Failed to read the time to live of {} in cache {}: {}", key, cacheName, ex.getMessage());
+                    return Mono.just(System.currentTimeMillis() + 2 * window.toMillis());
+                })
+                .toFuture();
+    }
+
+    /**
+     * Drops a tracked expiry as soon as the Redis entry it refers to expires.
+     */
+    private static class UntilExpiry implements Expiry<String, Long> {
+        @Override
+        public long expireAfterCreate(String key, Long expiresAt, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(expiresAt, NO_EXPIRY / 2) - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Long expiresAt, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, expiresAt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Long expiresAt, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Makes sure that only one caller per key runs the value loader on a cache miss.
+ * Inside the JVM the callers of the same key wait for the leader's result; across replicas the leader
+ * must also hold a Redis lease, while the callers that miss the lease poll the cache for a bounded time.
+ *
+ * Unlike RedisCache, which serialises every miss of the cache behind a single lock,
+ * misses of different keys are loaded concurrently.
+ *
+ * The retrieve operations follow the same protocol without blocking: lease followers poll the cache on a timer,
+ * and the blocking and non-blocking callers of the same key share a single load.
+ */
+public class SingleFlightCache extends DelegatingCache {
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final SingleFlightLayer layer;
+
+    SingleFlightCache(Cache target, SingleFlightLayer layer) {
+        super(target);
+        this.layer = layer;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper cached = target.get(key);
+        if (cached != null) {
+            return (T) cached.get();
+        }
+
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leaderFlight = inFlight.putIfAbsent(String.valueOf(key), flight);
+        if (leaderFlight != null) {
+            layer.recordLoad(getName(), SingleFlightLayer.COALESCED);
+            return (T) await(leaderFlight);
+        }
+
+        try {
+            Object value;
+            if (layer.isClusterMode()) {
+                value = loadWithLease(key, valueLoader);
+            } else {
+                // The previous leader may have filled the cache and given the slot up since our lookup
+                ValueWrapper filled = target.get(key);
+                value = (filled != null) ? filled.get() : load(key, valueLoader, SingleFlightLayer.LEADER);
+            }
+            flight.complete(value);
+            return (T) value;
+        } catch (RuntimeException | Error ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(String.valueOf(key), flight);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return target.retrieve(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((T) cached);
+            }
+            CompletableFuture<Object> flight = new CompletableFuture<>();
+            CompletableFuture<Object> leaderFlight = inFlight.putIfAbsent(String.valueOf(key), flight);
+            if (leaderFlight != null) {
+                layer.recordLoad(getName(), SingleFlightLayer.COALESCED);
+                return leaderFlight.thenApply(value -> (T) value);
+            }
+            // The target looks the key up again before calling the loader, see retrieveLoading
+            CompletableFuture<Object> load = layer.isClusterMode() ? retrieveWithLease(key, valueLoader)
+                    : retrieveLoading(key, valueLoader, SingleFlightLayer.LEADER);
+            load.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    flight.completeExceptionally((ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex);
+                } else {
+                    flight.complete(value);
+                }
+                inFlight.remove(String.valueOf(key), flight);
+            });
+            return flight.thenApply(value -> (T) value);
+        });
+    }
+
+    private CompletableFuture<Object> retrieveWithLease(Object key, Supplier<? extends CompletableFuture<?>> valueLoader) {
+        String leaseKey = layer.leaseKey(getName(), key);
+        return layer.tryAcquireLeaseAsync(leaseKey).thenCompose(token -> {
+            if (token != null) {
+                // The target looks the key up again, since another replica may have filled it in the meantime
+                return retrieveLoading(key, valueLoader, SingleFlightLayer.LEADER)
+                        .whenComplete((value, ex) -> layer.releaseLeaseAsync(leaseKey, token));
+            }
+            return pollLease(key, valueLoader, leaseKey, System.nanoTime() + layer.getLeaseWait().toNanos());
+        });
+    }
+
+    private CompletableFuture<Object> pollLease(Object key, Supplier<? extends CompletableFuture<?>> valueLoader, String leaseKey, long deadline) {
+        if (System.nanoTime() >= deadline) {
+            return retrieveLoading(key, valueLoader, SingleFlightLayer.LEASE_TIMEOUT);
+        }
+        return CompletableFuture.runAsync(() -> { }, layer.pollExecutor())
+                .thenCompose(ignored -> target.retrieve(key))
+                .thenCompose(cached -> {
+                    if (cached != null) {
+                        layer.recordLoad(getName(), SingleFlightLayer.LEASE_FOLLOWER);
+                        return CompletableFuture.completedFuture(cached);
+                    }
+                    return layer.isLeaseHeldAsync(leaseKey).thenCompose(held -> held
+                            ? pollLease(key, valueLoader, leaseKey, deadline)
+                            : retrieveLoading(key, valueLoader, SingleFlightLayer.LEASE_TIMEOUT));
+                });
+    }
+
+    /**
+     * Like load, the load is recorded when the value loader is called.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> retrieveLoading(Object key, Supplier<? extends CompletableFuture<?>> valueLoader, String role) {
+        return target.retrieve(key, () -> {
+            layer.recordLoad(getName(), role);
+            return (CompletableFuture<Object>) valueLoader.get();
+        });
+    }
+
+    private Object loadWithLease(Object key, Callable<?> valueLoader) {
+        String leaseKey = layer.leaseKey(getName(), key);
+        String token = layer.tryAcquireLease(leaseKey);
+        if (token != null) {
+            try {
+                // Another replica may have filled the cache between our lookup and the lease acquisition
+                ValueWrapper cached = target.get(key);
+                return (cached != null) ? cached.get() : load(key, valueLoader, SingleFlightLayer.LEADER);
+            } finally {
+                layer.releaseLease(leaseKey, token);
+            }
+        }
+
+        long deadline = System.nanoTime() + layer.getLeaseWait().toNanos();
+        while (System.nanoTime() < deadline && layer.pause()) {
+            ValueWrapper cached = target.get(key);
+            if (cached != null) {
+                layer.recordLoad(getName(), SingleFlightLayer.LEASE_FOLLOWER);
+                return cached.get();
+            }
+            if (!layer.isLeaseHeld(leaseKey)) {
+                break;
+            }
+        }
+        // The lease holder failed or is too slow: do not let the caller wait any longer
+        return load(key, valueLoader, SingleFlightLayer.LEASE_TIMEOUT);
+    }
+
+    private Object load(Object key, Callable<?> valueLoader, String role) {
+        // Taken before loading, so that a write or eviction during the load makes the fill stale
+        Object token = fillToken(key);
+        layer.recordLoad(getName(), role);
+        Object value;
+        try {
+            value = valueLoader.call();
+        } catch (Exception ex) {
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        }
+        if (value != null) {
+            putIfValid(key, value, token);
+        }
+        return value;
+    }
+
+    private static Object await(CompletableFuture<Object> flight) {
+        try {
+            return flight.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw (RuntimeException) ex.getCause();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a concurrent cache load", ex);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link SingleFlightCache} instances and owns the Redis leases used in cluster mode.
+ * A lease is a "lease:cacheName::key" entry set with SET NX PX, so it is released even if the holder dies;
+ * the holder deletes it with a compare-and-delete script to never release a lease acquired by somebody else.
+ */
+@Component
+public class SingleFlightLayer implements CacheLayer {
+    private static final Logger LOG = LoggerFactory.getLogger(SingleFlightLayer.class);
+    static final String LEADER = "leader";
+    static final String COALESCED = "coalesced";
+    static final String LEASE_FOLLOWER = "lease-follower";
+    static final String LEASE_TIMEOUT = "lease-timeout";
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    public enum Mode { LOCAL, CLUSTER }
+
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Mode mode;
+    private final Duration leaseTtl;
+    private final Duration leaseWait;
+    private final Duration pollInterval;
+
+    @Autowired
+    public SingleFlightLayer(StringRedisTemplate redisTemplate, ReactiveStringRedisTemplate reactiveRedisTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.cache.single-flight.mode}") Mode mode,
+                             @Value("${app.cache.single-flight.lease-ttl}") Duration leaseTtl,
+                             @Value("${app.cache.single-flight.lease-wait}") Duration leaseWait,
+                             @Value("${app.cache.single-flight.poll-interval}") Duration pollInterval) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.mode = mode;
+        this.leaseTtl = leaseTtl;
+        this.leaseWait = leaseWait;
+        this.pollInterval = pollInterval;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        LOG.debug("Single-flight loading enabled for cache: {}, mode: {}", cache.getName(), mode);
+        return new SingleFlightCache(cache, this);
+    }
+
+    boolean isClusterMode() {
+        return mode == Mode.CLUSTER;
+    }
+
+    Duration getLeaseWait() {
+        return leaseWait;
+    }
+
+    String leaseKey(String cacheName, Object key) {
+        return "lease:" + cacheName + "::" + key;
+    }
+
+    /**
+     * @return the token identifying the acquired lease, null if the lease is held by somebody else
+     */
+    String tryAcquireLease(String leaseKey) {
+        String token = UUID.randomUUID().toString();
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(leaseKey, token, leaseTtl))) {
+                return token;
+            }
+            return null;
+        } catch (Exception ex) {
+            // Without Redis the lease cannot be coordinated, so behave as if it was acquired
+            LOG.warn("Failed to acquire the cache lease: {}, {}", leaseKey, ex.getMessage());
+            return token;
+        }
+    }
+
+    void releaseLease(String leaseKey, String token) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(leaseKey), token);
+        } catch (Exception ex) {
+            LOG.warn("Failed to release the cache lease: {}, it will expire in {}", leaseKey, leaseTtl);
+        }
+    }
+
+    boolean isLeaseHeld(String leaseKey) {
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(leaseKey));
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return false if the calling thread has been interrupted while pausing
+     */
+    boolean pause() {
+        try {
+            Thread.sleep(pollInterval);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Non-blocking tryAcquireLease.
+     */
+    CompletableFuture<String> tryAcquireLeaseAsync(String leaseKey) {
+        String token = UUID.randomUUID().toString();
+        return reactiveRedisTemplate.opsForValue().setIfAbsent(leaseKey, token, leaseTtl)
+                .filter(Boolean::booleanValue)
+                .map(acquired -> token)
+                .onErrorResume(ex -> {
+                    LOG.warn("Failed to acquire the cache lease: {}, {}", leaseKey, ex.getMessage());
+                    return Mono.just(token);
+                })
+                .toFuture();
+    }
+
+    void releaseLeaseAsync(String leaseKey, String token) {
+        reactiveRedisTemplate.execute(RELEASE_SCRIPT, List.of(leaseKey), List.of(token))
+                .doOnError(ex -> LOG.warn("Failed to release the cache lease: {}, it will expire in {}", leaseKey, leaseTtl))
+                .subscribe(released -> { }, ex -> { });
+    }
+
+    CompletableFuture<Boolean> isLeaseHeldAsync(String leaseKey) {
+        return reactiveRedisTemplate.hasKey(leaseKey).onErrorReturn(false).toFuture();
+    }
+
+    /**
+     * Non-blocking pause: the tasks run on this executor start once the poll interval has elapsed.
+     */
+    Executor pollExecutor() {
+        return CompletableFuture.delayedExecutor(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void recordLoad(String cacheName, String role) {
+        Counter.builder("cache.single.flight.loads")
+                .description("Cache miss loads by role: leader loads run the value loader, the other roles reuse its result")
+                .tags("cache", cacheName, "role", role)
+                .register(meterRegistry)
+                .increment();
+    }
+}
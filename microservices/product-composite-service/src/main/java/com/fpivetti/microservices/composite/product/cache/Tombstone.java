@@ -0,0 +1,23 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Cached in place of a value that does not exist, so that lookups of missing keys are answered by the cache.
+ */
+public class Tombstone {
+    private final String message;
+
+    @JsonCreator
+    public Tombstone(@JsonProperty("message") String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return the message of the not found error the tombstone stands for
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,51 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * The {@link TtlPolicy} of each cache, built from the configuration: the TTL of the cache under
+ * "app.cache.ttl.caches.cacheName", else the default TTL, with the shared jitter. Tombstones always
+ * live for the negative cache TTL.
+ */
+@Component
+public class TtlPolicies {
+    private final Duration defaultTtl;
+    private final double jitter;
+    private final Duration tombstoneTtl;
+    private final Map<String, Duration> cacheTtls;
+
+    @Autowired
+    public TtlPolicies(Environment environment,
+                       @Value("${app.cache.ttl.default}") Duration defaultTtl,
+                       @Value("${app.cache.ttl.jitter}") double jitter,
+                       @Value("${app.cache.negative.ttl}") Duration tombstoneTtl) {
+        this.defaultTtl = defaultTtl;
+        this.jitter = jitter;
+        this.tombstoneTtl = tombstoneTtl;
+        this.cacheTtls = Binder.get(environment)
+                .bind("app.cache.ttl.caches", Bindable.mapOf(String.class, Duration.class))
+                .orElse(Map.of());
+    }
+
+    /**
+     * @return the policy of the caches without a TTL of their own
+     */
+    public TtlPolicy defaultPolicy() {
+        return TtlPolicy.of(defaultTtl, jitter).when(Tombstone.class, tombstoneTtl);
+    }
+
+    /**
+     * @return the policy of the cache, to which callers can add rules for the values they know about
+     */
+    public TtlPolicy policy(String cacheName) {
+        return TtlPolicy.of(cacheTtls.getOrDefault(cacheName, defaultTtl), jitter).when(Tombstone.class, tombstoneTtl);
+    }
+}
@@ -0,0 +1,68 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Time to live of the entries of a cache: the TTL of the first rule matching the value, else the default TTL
+ * of the cache, shortened by a random part of up to jitter of it. The jitter spreads the expiry of the entries
+ * written together, e.g. by a traffic burst or a warm-up, so that their misses do not come back together.
+ * A TTL is only ever shortened, so a rule keeping an entry below some bound, e.g. the refresh-ahead window,
+ * still holds with the jitter.
+ */
+public final class TtlPolicy implements RedisCacheWriter.TtlFunction {
+    private final Duration ttl;
+    private final double jitter;
+    private final List<Rule> rules;
+
+    private record Rule(Predicate<Object> matches, Duration ttl) {
+    }
+
+    private TtlPolicy(Duration ttl, double jitter, List<Rule> rules) {
+        this.ttl = ttl;
+        this.jitter = jitter;
+        this.rules = rules;
+    }
+
+    /**
+     * @param jitter the largest part of the TTL shaved off at random, from 0 (no jitter) up to, excluded, 1
+     */
+    public static TtlPolicy of(Duration ttl, double jitter) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1 (excluded): " + jitter);
+        }
+        return new TtlPolicy(ttl, jitter, List.of());
+    }
+
+    /**
+     * @return a policy giving the values of the type that match the given TTL, unless an earlier rule matches them
+     */
+    public <T> TtlPolicy when(Class<T> type, Predicate<? super T> matches, Duration ttl) {
+        List<Rule> withRule = new ArrayList<>(rules);
+        withRule.add(new Rule(value -> type.isInstance(value) && matches.test(type.cast(value)), ttl));
+        return new TtlPolicy(this.ttl, jitter, List.copyOf(withRule));
+    }
+
+    public TtlPolicy when(Class<?> type, Duration ttl) {
+        return when(type, value -> true, ttl);
+    }
+
+    public Duration ttlOf(Object value) {
+        Duration base = rules.stream().filter(rule -> rule.matches().test(value)).findFirst().map(Rule::ttl).orElse(ttl);
+        long maxJitterMillis = (long) (base.toMillis() * jitter);
+        return (maxJitterMillis > 0) ? base.minusMillis(ThreadLocalRandom.current().nextLong(maxJitterMillis + 1)) : base;
+    }
+
+    @Override
+    public Duration getTimeToLive(Object key, Object value) {
+        return ttlOf(value);
+    }
+}
@@ -0,0 +1,193 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A checkpoint of cache entries in a memory-mapped file: the stored bytes of each value with the epoch millis
+ * at which its Redis entry expires, and the fill sequence of the cache read before the values, which tells
+ * the entries written or evicted since (see {@link FillLeaseLayer#unchangedSince}).
+ * <pre>
+ *   header: MAGIC int, VERSION int, created at long, fill sequence long, entry count int
+ *   entry:  key length int, UTF-8 key, expires at long, value length int, value
+ * </pre>
+ * Opening a checkpoint only reads the keys, the values are copied out of the mapping when they are taken.
+ * Entries past their expiry are discarded, and so is the whole checkpoint once it is older than maxAge.
+ */
+public class WarmCheckpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(WarmCheckpoint.class);
+    private static final int MAGIC = 0xCAC4E0C9;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final MappedByteBuffer mapping;
+    private final Map<String, Location> index;
+    private final long createdAt;
+    private final long fillSequence;
+    private final long expiresAt;
+    private volatile boolean empty;
+
+    public record Entry(String key, byte[] value, long expiresAt) {
+    }
+
+    private record Location(int offset, int length, long expiresAt) {
+    }
+
+    private WarmCheckpoint(MappedByteBuffer mapping, Map<String, Location> index, long createdAt, long fillSequence,
+                           long expiresAt) {
+        this.mapping = mapping;
+        this.index = index;
+        this.createdAt = createdAt;
+        this.fillSequence = fillSequence;
+        this.expiresAt = expiresAt;
+        this.empty = index.isEmpty();
+    }
+
+    /**
+     * Writes the entries to a temporary file, then moves it in place so that a crash never leaves a partial checkpoint.
+     */
+    public static void write(Path path, long fillSequence, List<Entry> entries) throws IOException {
+        long size = HEADER_LENGTH;
+        for (Entry entry : entries) {
+            size += Integer.BYTES + entry.key().getBytes(StandardCharsets.UTF_8).length + Long.BYTES + Integer.BYTES + entry.value().length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint too large: " + size + " bytes");
+        }
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(fillSequence)
+                    .putInt(entries.size());
+            for (Entry entry : entries) {
+                byte[] key = entry.key().getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(key.length).put(key).putLong(entry.expiresAt()).putInt(entry.value().length).put(entry.value());
+            }
+            buffer.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the checkpoint, empty if there is none, or if it cannot be read or is older than maxAge
+     */
+    public static WarmCheckpoint open(Path path, Duration maxAge) {
+        if (!Files.isRegularFile(path)) {
+            return empty();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapping.getInt() != MAGIC || mapping.getInt() != VERSION) {
+                LOG.warn("Ignoring the checkpoint: {}, unknown format", path);
+                return empty();
+            }
+            long createdAt = mapping.getLong();
+            long fillSequence = mapping.getLong();
+            long expiresAt = createdAt + maxAge.toMillis();
+            long now = System.currentTimeMillis();
+            if (expiresAt <= now) {
+                LOG.info("Ignoring the checkpoint: {}, older than: {}", path, maxAge);
+                return empty();
+            }
+            int count = mapping.getInt();
+            Map<String, Location> index = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[mapping.getInt()];
+                mapping.get(key);
+                long entryExpiresAt = mapping.getLong();
+                int length = mapping.getInt();
+                if (entryExpiresAt > now) {
+                    index.put(new String(key, StandardCharsets.UTF_8), new Location(mapping.position(), length, entryExpiresAt));
+                }
+                mapping.position(mapping.position() + length);
+            }
+            LOG.info("Opened the checkpoint: {}, {} of its {} entries are still valid", path, index.size(), count);
+            return new WarmCheckpoint(mapping, index, createdAt, fillSequence, expiresAt);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+            LOG.warn("Ignoring the checkpoint: {}, {}", path, ex.toString());
+            return empty();
+        }
+    }
+
+    public static WarmCheckpoint empty() {
+        return new WarmCheckpoint(null, new HashMap<>(), 0, 0, 0);
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getFillSequence() {
+        return fillSequence;
+    }
+
+    public synchronized Set<String> keys() {
+        return Set.copyOf(index.keySet());
+    }
+
+    /**
+     * Removes the entries whose key is not in the given ones.
+     */
+    public synchronized void retain(Set<String> keys) {
+        index.keySet().retainAll(keys);
+        empty = index.isEmpty();
+    }
+
+    /**
+     * @return the stored bytes of the value, null if the key is not in the checkpoint or has expired
+     */
+    public synchronized byte[] get(String key) {
+        if (empty) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now) {
+            clear();
+            return null;
+        }
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        if (location.expiresAt() <= now) {
+            remove(key);
+            return null;
+        }
+        byte[] value = new byte[location.length()];
+        mapping.get(location.offset(), value);
+        return value;
+    }
+
+    public synchronized void remove(String key) {
+        if (index.remove(key) != null && index.isEmpty()) {
+            empty = true;
+        }
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        empty = true;
+    }
+}
@@ -0,0 +1,97 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * L1 store warmed from a {@link WarmCheckpoint}: a key missing from the L1 is restored from the checkpoint,
+ * and any write or invalidation of a key drops its checkpointed value, which is older.
+ * Restores and invalidations are serialized while the checkpoint is not empty, so that an invalidation
+ * cannot be overtaken by the restore of the value it invalidates.
+ */
+class WarmLocalStore implements LocalStore {
+    private static final Logger LOG = LoggerFactory.getLogger(WarmLocalStore.class);
+
+    private final LocalStore local;
+    private final WarmCheckpoint checkpoint;
+    private final Function<byte[], Object> deserializer;
+    private final Counter restores;
+
+    WarmLocalStore(LocalStore local, WarmCheckpoint checkpoint, Function<byte[], Object> deserializer, Counter restores) {
+        this.local = local;
+        this.checkpoint = checkpoint;
+        this.deserializer = deserializer;
+        this.restores = restores;
+    }
+
+    @Override
+    public Object getIfPresent(String key) {
+        Object value = local.getIfPresent(key);
+        return (value != null || checkpoint.isEmpty()) ? value : restore(key);
+    }
+
+    @Override
+    public void put(String key, Object value) {
+        if (checkpoint.isEmpty()) {
+            local.put(key, value);
+            return;
+        }
+        synchronized (this) {
+            checkpoint.remove(key);
+            local.put(key, value);
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        if (checkpoint.isEmpty()) {
+            local.invalidate(key);
+            return;
+        }
+        synchronized (this) {
+            checkpoint.remove(key);
+            local.invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (this) {
+            checkpoint.clear();
+        }
+        local.invalidateAll();
+    }
+
+    @Override
+    public List<String> hottestKeys(int limit) {
+        return local.hottestKeys(limit);
+    }
+
+    /**
+     * The checkpointed value is only removed once it is in the L1, so that an unsynchronized invalidation,
+     * seeing an empty checkpoint, comes after it.
+     */
+    private synchronized Object restore(String key) {
+        byte[] bytes = checkpoint.get(key);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            Object value = deserializer.apply(bytes);
+            if (value != null) {
+                local.put(key, value);
+                restores.increment();
+            }
+            return value;
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to restore the checkpointed value of key: {}, {}", key, ex.getMessage());
+            return null;
+        } finally {
+            checkpoint.remove(key);
+        }
+    }
+}
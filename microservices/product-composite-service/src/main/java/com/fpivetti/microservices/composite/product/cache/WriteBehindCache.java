@@ -0,0 +1,61 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Takes the cache fills, i.e. the values loaded after a miss, off the request path: they are queued with their
+ * fill token and written in the background by the {@link WriteBehindLayer}, so that the caller gets the value
+ * as soon as it is loaded. The other writes and the evictions still reach the cache before returning.
+ * A queued fill counts as stored for the layers above.
+ */
+public class WriteBehindCache extends DelegatingCache {
+    private final WriteBehindLayer layer;
+
+    WriteBehindCache(Cache target, WriteBehindLayer layer) {
+        super(target);
+        this.layer = layer;
+    }
+
+    @Override
+    public boolean putIfValid(Object key, Object value, Object token) {
+        return value != null && layer.enqueue(this, key, value, token);
+    }
+
+    @Override
+    public Set<Object> putAllIfValid(Map<?, ?> values, Map<?, ?> tokens) {
+        Set<Object> queued = new LinkedHashSet<>();
+        values.forEach((key, value) -> {
+            if (value != null && layer.enqueue(this, key, value, tokens.get(key))) {
+                queued.add(key);
+            }
+        });
+        return queued;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return target.retrieve(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((T) cached);
+            }
+            return fillTokenAsync(key).thenCompose(token -> valueLoader.get().thenApply(value -> {
+                putIfValid(key, value, token);
+                return value;
+            }));
+        });
+    }
+
+    /**
+     * Writes a batch of queued fills, called by the flusher thread of the layer.
+     */
+    void flush(Map<Object, Object> values, Map<Object, Object> tokens) {
+        super.putAllIfValid(values, tokens);
+    }
+}
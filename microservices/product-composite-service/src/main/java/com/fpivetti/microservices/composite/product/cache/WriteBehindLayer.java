@@ -0,0 +1,158 @@
+package com.fpivetti.microservices.composite.product.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link WriteBehindCache} instances and writes their queued fills to the cache below.
+ * A single thread drains the queue, writing whatever has been queued in the meantime, up to maxBatchSize entries,
+ * with a single putAllIfValid per cache, i.e. a single pipeline. When the queue is full the fill is dropped:
+ * the next miss will load the value again.
+ *
+ * The queued fills keep their fill token, so a fill that lands after a write or an eviction of its key is still
+ * rejected by the {@link FillLeaseLayer}. In cluster mode the single-flight lease is released before the fill
+ * is written, so a replica polling in between loads the value itself.
+ */
+@Component
+public class WriteBehindLayer implements CacheLayer, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindLayer.class);
+    static final String QUEUED = "queued";
+    static final String WRITTEN = "written";
+    static final String DROPPED = "dropped";
+    static final String FAILED = "failed";
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingFill> queue;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    record PendingFill(WriteBehindCache cache, Object key, Object value, Object token) {
+    }
+
+    @Autowired
+    public WriteBehindLayer(MeterRegistry meterRegistry,
+                            @Value("${app.cache.write-behind.enabled}") boolean enabled,
+                            @Value("${app.cache.write-behind.queue-capacity}") int queueCapacity,
+                            @Value("${app.cache.write-behind.max-batch-size}") int maxBatchSize) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flusher = new CustomizableThreadFactory("cache-write-behind-").newThread(this::flushLoop);
+        if (enabled) {
+            Gauge.builder("cache.write.behind.queue.size", queue, BlockingQueue::size)
+                    .description("Cache fills waiting to be written")
+                    .register(meterRegistry);
+            flusher.start();
+        }
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!enabled) {
+            return cache;
+        }
+        LOG.debug("Write-behind fills enabled for cache: {}", cache.getName());
+        return new WriteBehindCache(cache, this);
+    }
+
+    /**
+     * @return false if the queue is full and the fill has been dropped
+     */
+    boolean enqueue(WriteBehindCache cache, Object key, Object value, Object token) {
+        if (!running || !queue.offer(new PendingFill(cache, key, value, token))) {
+            record(cache.getName(), DROPPED, 1);
+            return false;
+        }
+        record(cache.getName(), QUEUED, 1);
+        return true;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(SHUTDOWN_TIMEOUT.toMillis());
+        // Whatever is left is written by the calling thread, the cache may still be reachable
+        flush(drain());
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                PendingFill first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingFill> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                flush(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private List<PendingFill> drain() {
+        List<PendingFill> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        return remaining;
+    }
+
+    private void flush(List<PendingFill> batch) {
+        Map<WriteBehindCache, List<PendingFill>> byCache = new IdentityHashMap<>();
+        batch.forEach(fill -> byCache.computeIfAbsent(fill.cache(), cache -> new ArrayList<>()).add(fill));
+        byCache.forEach((cache, fills) -> {
+            Map<Object, Object> values = new LinkedHashMap<>();
+            Map<Object, Object> tokens = new LinkedHashMap<>();
+            fills.forEach(fill -> {
+                // The last fill of a key wins, as it would have if they had been written one at a time
+                values.put(fill.key(), fill.value());
+                if (fill.token() != null) {
+                    tokens.put(fill.key(), fill.token());
+                } else {
+                    tokens.remove(fill.key());
+                }
+            });
+            try {
+                cache.flush(values, tokens);
+                record(cache.getName(), WRITTEN, values.size());
+            } catch (RuntimeException ex) {
+                LOG.warn("Failed to write {} queued fills of cache: {}, {}", values.size(), cache.getName(), ex.getMessage());
+                record(cache.getName(), FAILED, values.size());
+            }
+        });
+    }
+
+    private void record(String cacheName, String result, int count) {
+        Counter.builder("cache.write.behind")
+                .description("Cache fills queued, written in the background, dropped since the queue was full, or failed")
+                .tags("cache", cacheName, "result", result)
+                .register(meterRegistry)
+                .increment(count);
+    }
+}
@@ -1,29 +1,111 @@
 package com.fpivetti.microservices.composite.product.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fpivetti.api.composite.product.ProductAggregateDto;
+import com.fpivetti.microservices.composite.product.cache.CacheValueSerializer;
+import com.fpivetti.microservices.composite.product.cache.FillLeaseLayer;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache;
+import com.fpivetti.microservices.composite.product.cache.LayeredCacheManager;
+import com.fpivetti.microservices.composite.product.cache.NearCacheLayer;
+import com.fpivetti.microservices.composite.product.cache.NegativeCacheLayer;
+import com.fpivetti.microservices.composite.product.cache.PipelinedRedisLayer;
+import com.fpivetti.microservices.composite.product.cache.RefreshAheadLayer;
+import com.fpivetti.microservices.composite.product.cache.SingleFlightLayer;
+import com.fpivetti.microservices.composite.product.cache.TtlPolicies;
+import com.fpivetti.microservices.composite.product.cache.WriteBehindLayer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 
 import java.time.Duration;
+import java.util.List;
 
 @EnableCaching
 @Configuration
 public class RedisCacheConfig {
+    /**
+     * The codec of the products cache. The WIRE format writes the aggregates with the mapper of the HTTP responses,
+     * so that the cached JSON is exactly the response body.
+     */
     @Bean
-    public RedisCacheManager cacheManager(RedisConnectionFactory connectionFactory) {
+    public CacheValueSerializer productsValueSerializer(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                                        @Value("${app.cache.codec.format}") CacheValueSerializer.Format format,
+                                                        @Value("${app.cache.codec.compression.enabled}") boolean compressionEnabled,
+                                                        @Value("${app.cache.codec.compression.threshold-bytes}") int compressionThreshold) {
+        return new CacheValueSerializer("products", TypeFactory.defaultInstance().constructType(ProductAggregateDto.class), format,
+                compressionEnabled ? compressionThreshold : CacheValueSerializer.NO_COMPRESSION, objectMapper, meterRegistry);
+    }
+
+    @Bean
+    public RedisCacheManager redisCacheManager(RedisConnectionFactory connectionFactory, CacheValueSerializer productsValueSerializer,
+                                               TtlPolicies ttlPolicies,
+                                               @Value("${app.cache.degraded-ttl}") Duration degradedTtl,
+                                               @Value("${app.cache.ttl.busy-reviews.min-reviews}") int busyReviews,
+                                               @Value("${app.cache.ttl.busy-reviews.ttl}") Duration busyReviewsTtl) {
         RedisCacheConfiguration cacheConfiguration = RedisCacheConfiguration.defaultCacheConfig()
-                .entryTtl(Duration.ofMinutes(60))
+                .entryTtl(ttlPolicies.defaultPolicy())
                 .disableCachingNullValues()
                 .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(new GenericJackson2JsonRedisSerializer()));
 
-        return RedisCacheManager.builder(connectionFactory)
+        // The products cache holds a single type, so it can use the compact codec without type information
+        // Degraded aggregates only live until the missing parts can be retrieved again: being within the
+        // refresh-ahead window, they are also rebuilt in the background as soon as they are read
+        // The reviews of the most reviewed products are the ones changing the most, so their aggregates live shorter
+        RedisCacheConfiguration productsConfiguration = cacheConfiguration
+                .entryTtl(ttlPolicies.policy("products")
+                        .when(ProductAggregateDto.class, ProductAggregateDto::isDegraded, degradedTtl)
+                        .when(ProductAggregateDto.class,
+                                aggregate -> aggregate.getReviews() != null && aggregate.getReviews().size() >= busyReviews, busyReviewsTtl))
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(productsValueSerializer));
+
+        RedisCacheManager.RedisCacheManagerBuilder builder = RedisCacheManager.builder(connectionFactory)
                 .cacheDefaults(cacheConfiguration)
-                .transactionAware()
-                .build();
+                .withCacheConfiguration("products", productsConfiguration)
+                .transactionAware();
+        // The fragments are read and written by the FragmentCache, they are declared for their keys and time to live
+        for (FragmentCache.Fragment fragment : FragmentCache.Fragment.values()) {
+            builder.withCacheConfiguration(fragment.getCacheName(),
+                    cacheConfiguration.entryTtl(ttlPolicies.policy(fragment.getCacheName())));
+        }
+        return builder.build();
+    }
+
+    /**
+     * The cache manager used by the caching annotations: the Redis caches with the enabled layers on top.
+     * Layers are listed from the closest to Redis to the closest to the caller.
+     */
+    @Bean
+    @Primary
+    public CacheManager cacheManager(RedisCacheManager redisCacheManager, PipelinedRedisLayer pipelinedRedisLayer,
+                                     FillLeaseLayer fillLeaseLayer, WriteBehindLayer writeBehindLayer,
+                                     SingleFlightLayer singleFlightLayer,
+                                     NearCacheLayer nearCacheLayer, NegativeCacheLayer negativeCacheLayer,
+                                     RefreshAheadLayer refreshAheadLayer) {
+        // Tombstones are kept by the near cache, but never reach the refresh-ahead layer
+        return new LayeredCacheManager(redisCacheManager,
+                List.of(pipelinedRedisLayer, fillLeaseLayer, writeBehindLayer, singleFlightLayer, nearCacheLayer, negativeCacheLayer, refreshAheadLayer));
+    }
+
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                            NearCacheLayer nearCacheLayer) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        if (nearCacheLayer.isEnabled()) {
+            container.addMessageListener(nearCacheLayer, new ChannelTopic(nearCacheLayer.getTopic()));
+        }
+        return container;
     }
 }
@@ -0,0 +1,54 @@
+package com.fpivetti.microservices.composite.product.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * The client used to call the core services. Each service host gets its own pool of keep-alive connections,
+ * exposed with the reactor.netty.connection.provider metrics tagged by remote address.
+ * With h2c the client upgrades the first connection to cleartext HTTP/2 and multiplexes the requests on it,
+ * falling back to HTTP/1.1 if the server does not support it.
+ */
+@Configuration
+public class WebClientConfig {
+    @Bean(destroyMethod = "dispose")
+    ConnectionProvider coreServicesConnectionProvider(
+            @Value("${app.http-client.pool.max-connections}") int maxConnections,
+            @Value("${app.http-client.pool.pending-acquire-max-count}") int pendingAcquireMaxCount,
+            @Value("${app.http-client.pool.pending-acquire-timeout}") Duration pendingAcquireTimeout,
+            @Value("${app.http-client.pool.max-idle-time}") Duration maxIdleTime,
+            @Value("${app.http-client.pool.max-life-time}") Duration maxLifeTime,
+            @Value("${app.http-client.pool.evict-in-background}") Duration evictInBackground) {
+        return ConnectionProvider.builder("core-services")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInBackground)
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    WebClient webClient(WebClient.Builder builder, ConnectionProvider coreServicesConnectionProvider,
+                        @Value("${app.http-client.connect-timeout}") Duration connectTimeout,
+                        @Value("${app.http-client.response-timeout}") Duration responseTimeout,
+                        @Value("${app.http-client.h2c}") boolean h2c) {
+        HttpClient httpClient = HttpClient.create(coreServicesConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout)
+                .protocol(h2c ? new HttpProtocol[] {HttpProtocol.H2C, HttpProtocol.HTTP11} : new HttpProtocol[] {HttpProtocol.HTTP11})
+                .metrics(true, uri -> uri.replaceAll("\\?.*", "").replaceAll("/\\d+$", "/{id}"));
+        return builder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+    }
+}
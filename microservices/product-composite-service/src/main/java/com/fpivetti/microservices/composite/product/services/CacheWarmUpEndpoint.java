@@ -0,0 +1,37 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * GET /actuator/cachewarmup lists the recorded hot productIds, POST /actuator/cachewarmup rebuilds
+ * the ones missing from Redis.
+ */
+@Component
+@Endpoint(id = "cachewarmup")
+public class CacheWarmUpEndpoint {
+    private final HotKeyRecorder hotKeys;
+    private final CacheWarmer warmer;
+
+    @Autowired
+    public CacheWarmUpEndpoint(HotKeyRecorder hotKeys, CacheWarmer warmer) {
+        this.hotKeys = hotKeys;
+        this.warmer = warmer;
+    }
+
+    @ReadOperation
+    public List<Integer> hotKeys() {
+        return hotKeys.hottest();
+    }
+
+    @WriteOperation
+    public Mono<CacheWarmer.WarmUpResult> warmUp() {
+        return warmer.warmUp();
+    }
+}
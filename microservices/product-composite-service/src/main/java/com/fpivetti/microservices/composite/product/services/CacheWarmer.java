@@ -0,0 +1,162 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import com.fpivetti.microservices.composite.product.cache.RedisCacheKeys;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeServiceImpl.CacheMode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rebuilds the aggregates of the hot productIds recorded by the {@link HotKeyRecorder} that are missing from Redis,
+ * e.g. after a flush or a failover. The hot keys are checked with a pipeline of EXISTS per batch, the missing ones
+ * are rebuilt with one batch call per core service and written back in one pipeline, with at most parallelism
+ * batches in flight. Runs on startup when enabled, or through the cachewarmup actuator endpoint.
+ */
+@Component
+public class CacheWarmer {
+    private static final Logger LOG = LoggerFactory.getLogger(CacheWarmer.class);
+    private static final String CACHE_NAME = "products";
+
+    private final HotKeyRecorder hotKeys;
+    private final ProductAggregateLoader loader;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisCacheKeys redisKeys;
+    private final Scheduler blockingScheduler;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final boolean aggregateMode;
+    private final int parallelism;
+    private final int batchSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * @param status DONE, or RUNNING if another warm-up was in progress, or SKIPPED in fragments mode
+     * @param keys the hot keys checked
+     * @param missing the hot keys missing from Redis
+     * @param rebuilt the aggregates rebuilt and written back
+     */
+    public record WarmUpResult(String status, int keys, int missing, int rebuilt) {
+        static WarmUpResult of(String status) {
+            return new WarmUpResult(status, 0, 0, 0);
+        }
+
+        WarmUpResult plus(WarmUpResult other) {
+            return new WarmUpResult(status, keys + other.keys, missing + other.missing, rebuilt + other.rebuilt);
+        }
+    }
+
+    @Autowired
+    public CacheWarmer(HotKeyRecorder hotKeys, ProductAggregateLoader loader, StringRedisTemplate redisTemplate,
+                       RedisCacheKeys redisKeys, Scheduler blockingScheduler, MeterRegistry meterRegistry,
+                       @Value("${app.cache.mode}") CacheMode cacheMode,
+                       @Value("${app.cache.warm-up.enabled}") boolean enabled,
+                       @Value("${app.cache.warm-up.parallelism}") int parallelism,
+                       @Value("${app.cache.warm-up.batch-size}") int batchSize) {
+        this.hotKeys = hotKeys;
+        this.loader = loader;
+        this.redisTemplate = redisTemplate;
+        this.redisKeys = redisKeys;
+        this.blockingScheduler = blockingScheduler;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.aggregateMode = cacheMode == CacheMode.AGGREGATE;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (enabled) {
+            // A failure is logged by the warm-up itself
+            warmUp().subscribe(result -> LOG.info("Startup warm-up of the products cache: {}", result), ex -> { });
+        }
+    }
+
+    /**
+     * Starts a warm-up on subscription. The warm-up runs detached from the subscriber, so that a caller going
+     * away, e.g. an actuator client disconnecting, does not cancel it half-way.
+     */
+    public Mono<WarmUpResult> warmUp() {
+        return Mono.defer(() -> {
+            if (!aggregateMode) {
+                return Mono.just(WarmUpResult.of("SKIPPED"));
+            }
+            if (!running.compareAndSet(false, true)) {
+                return Mono.just(WarmUpResult.of("RUNNING"));
+            }
+            Mono<WarmUpResult> job = warmUpHotKeys()
+                    .doFinally(signal -> running.set(false))
+                    .cache();
+            job.subscribe(result -> { }, ex -> LOG.warn("Warm-up of the products cache failed: {}", ex.getMessage()));
+            return job;
+        });
+    }
+
+    private Mono<WarmUpResult> warmUpHotKeys() {
+        return Mono.defer(() -> {
+            List<Integer> productIds = hotKeys.hottest();
+            LOG.debug("Warming up the products cache with {} hot keys", productIds.size());
+            List<List<Integer>> batches = new ArrayList<>();
+            for (int i = 0; i < productIds.size(); i += batchSize) {
+                batches.add(productIds.subList(i, Math.min(i + batchSize, productIds.size())));
+            }
+            return Flux.fromIterable(batches)
+                    .flatMap(batch -> Mono.fromCallable(() -> warmUp(batch)).subscribeOn(blockingScheduler), parallelism)
+                    .reduce(WarmUpResult.of("DONE"), WarmUpResult::plus);
+        });
+    }
+
+    /**
+     * A failed batch is only logged, the others still go on.
+     */
+    private WarmUpResult warmUp(List<Integer> batch) {
+        try {
+            List<Integer> missing = missingFromRedis(batch);
+            int rebuilt = missing.isEmpty() ? 0 : loader.rebuildProducts(missing).size();
+            record("present", batch.size() - missing.size());
+            record("rebuilt", rebuilt);
+            return new WarmUpResult("DONE", batch.size(), missing.size(), rebuilt);
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to warm up the productIds: {}, {}", batch, ex.getMessage());
+            record("failed", batch.size());
+            return new WarmUpResult("DONE", batch.size(), 0, 0);
+        }
+    }
+
+    private List<Integer> missingFromRedis(List<Integer> productIds) {
+        List<Object> exists = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            productIds.forEach(productId -> connection.keyCommands().exists(redisKeys.redisKey(CACHE_NAME, productId)));
+            return null;
+        });
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < productIds.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i))) {
+                missing.add(productIds.get(i));
+            }
+        }
+        return missing;
+    }
+
+    private void record(String result, int count) {
+        Counter.builder("cache.warm.up")
+                .description("Hot keys found in Redis, rebuilt, or failed during a warm-up")
+                .tags("cache", CACHE_NAME, "result", result)
+                .register(meterRegistry)
+                .increment(count);
+    }
+}
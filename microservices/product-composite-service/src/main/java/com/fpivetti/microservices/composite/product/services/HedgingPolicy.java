@@ -0,0 +1,151 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests for idempotent reads: when the first attempt has not answered within the configured latency
+ * percentile of the downstream service, a second attempt is sent and the first one to answer wins.
+ * Every request earns budgetRatio hedge tokens and every hedge spends one, so hedges never exceed that share
+ * of the requests; until enough latencies have been measured no hedge is sent.
+ */
+@Component
+public class HedgingPolicy {
+    static final String FIRED = "fired";
+    static final String WON = "won";
+    static final String BUDGET_EXHAUSTED = "budget-exhausted";
+    private static final long DELAY_RECOMPUTE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final long minSamples;
+    private final double budgetRatio;
+    private final double maxTokens;
+    private final ConcurrentMap<String, Downstream> downstreams = new ConcurrentHashMap<>();
+
+    @Autowired
+    public HedgingPolicy(MeterRegistry meterRegistry,
+                         @Value("${app.hedging.enabled}") boolean enabled,
+                         @Value("${app.hedging.percentile}") double percentile,
+                         @Value("${app.hedging.min-delay}") Duration minDelay,
+                         @Value("${app.hedging.min-samples}") long minSamples,
+                         @Value("${app.hedging.budget-ratio}") double budgetRatio,
+                         @Value("${app.hedging.max-tokens}") double maxTokens) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.minSamples = minSamples;
+        this.budgetRatio = budgetRatio;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @param attempt creates a new attempt of the read on every call
+     */
+    public <T> Mono<T> hedge(String downstream, Supplier<Mono<T>> attempt) {
+        if (!enabled) {
+            return attempt.get();
+        }
+        Downstream state = downstreams.computeIfAbsent(downstream, Downstream::new);
+        return Mono.defer(() -> {
+            state.deposit();
+            Mono<T> first = state.timed(attempt.get());
+            Duration delay = state.delay();
+            if (delay == null) {
+                return first;
+            }
+            Mono<T> second = Mono.delay(delay).flatMap(tick -> {
+                if (!state.withdraw()) {
+                    record(downstream, BUDGET_EXHAUSTED);
+                    return Mono.never();
+                }
+                record(downstream, FIRED);
+                return state.timed(attempt.get()).doOnNext(value -> record(downstream, WON));
+            });
+            // The first signal wins: an error of the first attempt is not hidden by a pending hedge
+            return Mono.firstWithSignal(first, second);
+        });
+    }
+
+    private void record(String downstream, String result) {
+        Counter.builder("composite.hedges")
+                .description("Hedged requests to the core services: fired, won by the hedge or skipped for lack of budget")
+                .tags("downstream", downstream, "result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private class Downstream {
+        private final Timer latency;
+        private double tokens;
+        private volatile Duration delay;
+        private volatile long delayComputedAt = System.nanoTime() - DELAY_RECOMPUTE_INTERVAL;
+
+        Downstream(String name) {
+            this.latency = Timer.builder("composite.hedging.latency")
+                    .description("Latency of the successful read attempts, its percentile sets the hedging delay")
+                    .tags("downstream", name)
+                    .publishPercentiles(percentile)
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(meterRegistry);
+        }
+
+        <T> Mono<T> timed(Mono<T> attempt) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return attempt.doOnSuccess(value -> latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            });
+        }
+
+        /**
+         * @return the hedging delay, null while too few latencies have been measured
+         */
+        Duration delay() {
+            long now = System.nanoTime();
+            // Until there is a delay it is computed as soon as enough latencies have been measured
+            if (now - delayComputedAt >= DELAY_RECOMPUTE_INTERVAL || delay == null && latency.count() >= minSamples) {
+                delayComputedAt = now;
+                delay = computeDelay();
+            }
+            return delay;
+        }
+
+        private Duration computeDelay() {
+            if (latency.count() < minSamples) {
+                return null;
+            }
+            for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+                long nanos = (long) value.value(TimeUnit.NANOSECONDS);
+                return nanos > 0 ? Duration.ofNanos(Math.max(nanos, minDelay.toNanos())) : null;
+            }
+            return null;
+        }
+
+        synchronized void deposit() {
+            tokens = Math.min(maxTokens, tokens + budgetRatio);
+        }
+
+        synchronized boolean withdraw() {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rolling record of the most requested productIds: every request counts, and all the counts are halved
+ * at each decay interval, so that the record follows the traffic. The candidates are tracked in a bounded
+ * Caffeine cache, whose admission policy keeps the frequently requested ones.
+ *
+ * When persistence is enabled, the record is written to "directory/hot-keys.products" after each decay
+ * and on shutdown, and read back on startup for the {@link CacheWarmer}.
+ */
+@Component
+public class HotKeyRecorder implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(HotKeyRecorder.class);
+    // Tracking more candidates than the record keeps lets the new hot keys build up their counts
+    private static final int CANDIDATES_PER_KEY = 4;
+
+    private final com.github.benmanes.caffeine.cache.Cache<Integer, LongAdder> counts;
+    private final int maxKeys;
+    private final boolean persistent;
+    private final Path path;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public HotKeyRecorder(@Value("${app.cache.warm-up.max-keys}") int maxKeys,
+                          @Value("${app.cache.warm-up.decay-interval}") Duration decayInterval,
+                          @Value("${app.cache.warm-up.enabled}") boolean persistent,
+                          @Value("${app.cache.warm-up.directory}") Path directory) {
+        this.maxKeys = maxKeys;
+        this.persistent = persistent;
+        this.path = directory.resolve("hot-keys.products");
+        this.counts = Caffeine.newBuilder()
+                .maximumSize((long) maxKeys * CANDIDATES_PER_KEY)
+                .build();
+        if (persistent) {
+            load();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("cache-hot-keys-"));
+        scheduler.scheduleWithFixedDelay(this::decay, decayInterval.toMillis(), decayInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void record(int productId) {
+        counts.get(productId, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return up to maxKeys productIds, the most requested first
+     */
+    public List<Integer> hottest() {
+        return hottestCounts().stream().map(Map.Entry::getKey).toList();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        if (persistent) {
+            save();
+        }
+    }
+
+    private List<Map.Entry<Integer, Long>> hottestCounts() {
+        return counts.asMap().entrySet().stream()
+                .map(entry -> Map.entry(entry.getKey(), entry.getValue().sum()))
+                .filter(entry -> entry.getValue() > 0)
+                .sorted(Map.Entry.<Integer, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(maxKeys)
+                .toList();
+    }
+
+    private void decay() {
+        counts.asMap().forEach((productId, count) -> {
+            long halved = count.sumThenReset() / 2;
+            if (halved > 0) {
+                count.add(halved);
+            } else {
+                counts.asMap().remove(productId, count);
+            }
+        });
+        if (persistent) {
+            save();
+        }
+    }
+
+    /**
+     * Written to a temporary file first, so that a crash never leaves a partial record.
+     */
+    private void save() {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temporary, hottestCounts().stream().map(entry -> entry.getKey() + " " + entry.getValue()).toList());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOG.warn("Failed to save the hot keys to: {}, {}", path, ex.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(path)) {
+                String[] parts = line.split(" ");
+                LongAdder count = new LongAdder();
+                count.add(Long.parseLong(parts[1]));
+                counts.put(Integer.valueOf(parts[0]), count);
+            }
+            LOG.info("Loaded {} hot keys from: {}", counts.estimatedSize(), path);
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Ignoring the hot keys of: {}, {}", path, ex.getMessage());
+            counts.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import com.fpivetti.api.composite.product.*;
+import com.fpivetti.api.core.product.ProductDto;
+import com.fpivetti.api.core.recommendation.RecommendationDto;
+import com.fpivetti.api.core.review.ReviewDto;
+import com.fpivetti.microservices.composite.product.cache.DelegatingCache;
+import com.fpivetti.microservices.composite.product.cache.NegativeCacheLayer;
+import com.fpivetti.microservices.composite.product.cache.Tombstone;
+import com.fpivetti.util.http.ServiceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple3;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the product aggregates behind the products cache. Loading blocks on the cache and on the core services,
+ * so it must not be called from an event loop thread, except for getProductAsync which never blocks.
+ */
+@Component
+public class ProductAggregateLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateLoader.class);
+    private final ServiceUtil serviceUtil;
+    private final ProductCompositeIntegration integration;
+    private final Cache productsCache;
+    private final NegativeCacheLayer negativeCacheLayer;
+
+    @Autowired
+    public ProductAggregateLoader(ServiceUtil serviceUtil, ProductCompositeIntegration integration,
+                                  CacheManager cacheManager, NegativeCacheLayer negativeCacheLayer) {
+        this.serviceUtil = serviceUtil;
+        this.integration = integration;
+        this.productsCache = cacheManager.getCache("products");
+        this.negativeCacheLayer = negativeCacheLayer;
+    }
+
+    @Cacheable(cacheNames = "products", key = "#productId", sync = true)
+    public ProductAggregateDto getProduct(int productId) {
+        return loadProduct(productId).block();
+    }
+
+    /**
+     * Same as getProduct, through the non-blocking retrieve operations of the products cache: cache hits
+     * complete without blocking any thread and misses are loaded by the returned Mono itself.
+     */
+    @Cacheable(cacheNames = "products", key = "#productId", sync = true)
+    public Mono<ProductAggregateDto> getProductAsync(int productId) {
+        return loadProduct(productId);
+    }
+
+    private Mono<ProductAggregateDto> loadProduct(int productId) {
+        LOG.debug("getCompositeProduct: lookup a product aggregate for productId: {}", productId);
+        // The three services are called concurrently, missing recommendations or reviews make the aggregate degraded
+        return Mono.zip(
+                        integration.getProductAsync(productId),
+                        integration.getRecommendationsAsync(productId).map(Optional::of).defaultIfEmpty(Optional.empty()),
+                        integration.getReviewsAsync(productId).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                .map(parts -> {
+                    LOG.debug("getCompositeProduct: aggregate entity found for productId: {}", productId);
+                    return createProductAggregate(parts.getT1(), parts.getT2().orElse(null), parts.getT3().orElse(null),
+                            serviceUtil.getServiceAddress());
+                })
+                .doOnError(e -> LOG.warn("getCompositeProduct failed: {}", e.getMessage()));
+    }
+
+    /**
+     * Writes the aggregate of a product that has just been created to the products cache. Missing recommendations
+     * or reviews mean that none were created.
+     */
+    public void putProduct(ProductDto productDto, List<RecommendationDto> recommendations, List<ReviewDto> reviews) {
+        ProductAggregateDto aggregate = createProductAggregate(productDto,
+                Objects.requireNonNullElse(recommendations, List.of()), Objects.requireNonNullElse(reviews, List.of()),
+                serviceUtil.getServiceAddress());
+        productsCache.put(productDto.getProductId(), aggregate);
+        LOG.debug("putProduct: aggregate written through for productId: {}", productDto.getProductId());
+    }
+
+    /**
+     * Reads all the aggregates from the products cache in one round trip, builds the missing ones with one batch
+     * call per core service and writes them back in one round trip. Unlike getProduct, concurrent loads
+     * of the same aggregates are not coalesced.
+     *
+     * @return the aggregates of the products found, by productId
+     */
+    public Map<Integer, ProductAggregateDto> getProducts(List<Integer> productIds) {
+        LOG.debug("getCompositeProducts: lookup the product aggregates for productIds: {}", productIds);
+        Map<Integer, ProductAggregateDto> aggregates = new LinkedHashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        Map<Object, Cache.ValueWrapper> cached = getAllCached(productIds);
+        for (Integer productId : productIds) {
+            Cache.ValueWrapper wrapper = cached.get(productId);
+            if (wrapper == null) {
+                misses.add(productId);
+            } else if (wrapper.get() instanceof ProductAggregateDto aggregate) {
+                aggregates.put(productId, aggregate);
+            }
+        }
+        if (!misses.isEmpty()) {
+            LOG.debug("getCompositeProducts: load the product aggregates for productIds: {}", misses);
+            aggregates.putAll(rebuildProducts(misses));
+        }
+        return aggregates;
+    }
+
+    /**
+     * Builds the aggregates with one batch call per core service, whatever the cache holds, and writes them
+     * to the products cache in one round trip.
+     *
+     * @return the aggregates of the products found, by productId
+     */
+    public Map<Integer, ProductAggregateDto> rebuildProducts(List<Integer> productIds) {
+        Map<Integer, ProductAggregateDto> aggregates = new LinkedHashMap<>();
+        Map<Object, Object> fillTokens = fillTokens(productIds);
+        Tuple3<Map<Integer, ProductDto>, Optional<Map<Integer, List<RecommendationDto>>>, Optional<Map<Integer, List<ReviewDto>>>> parts = Mono.zip(
+                integration.getProductsAsync(productIds),
+                integration.getRecommendationsAsync(productIds).map(Optional::of).defaultIfEmpty(Optional.empty()),
+                integration.getReviewsAsync(productIds).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                .switchIfEmpty(Mono.error(new IllegalStateException("No products returned for productIds: " + productIds)))
+                .block();
+        Map<Object, Object> loaded = new LinkedHashMap<>();
+        for (Integer productId : productIds) {
+            ProductDto productDto = parts.getT1().get(productId);
+            if (productDto == null) {
+                if (negativeCacheLayer.isEnabled()) {
+                    loaded.put(productId, new Tombstone("No product found for productId: " + productId));
+                }
+                continue;
+            }
+            List<RecommendationDto> recommendations = parts.getT2().map(r -> r.getOrDefault(productId, List.of())).orElse(null);
+            List<ReviewDto> reviews = parts.getT3().map(r -> r.getOrDefault(productId, List.of())).orElse(null);
+            ProductAggregateDto aggregate = createProductAggregate(productDto, recommendations, reviews, serviceUtil.getServiceAddress());
+            aggregates.put(productId, aggregate);
+            loaded.put(productId, aggregate);
+        }
+        putAllCached(loaded, fillTokens);
+        return aggregates;
+    }
+
+    private Map<Object, Cache.ValueWrapper> getAllCached(List<Integer> productIds) {
+        if (productsCache instanceof DelegatingCache layered) {
+            return layered.getAll(productIds);
+        }
+        Map<Object, Cache.ValueWrapper> cached = new LinkedHashMap<>();
+        productIds.forEach(productId -> {
+            Cache.ValueWrapper wrapper = productsCache.get(productId);
+            if (wrapper != null) {
+                cached.put(productId, wrapper);
+            }
+        });
+        return cached;
+    }
+
+    private Map<Object, Object> fillTokens(List<Integer> productIds) {
+        return (productsCache instanceof DelegatingCache layered) ? layered.fillTokens(productIds) : Map.of();
+    }
+
+    /**
+     * The aggregates of the products written or deleted since their fill token was read are not cached.
+     */
+    private void putAllCached(Map<Object, Object> values, Map<Object, Object> fillTokens) {
+        if (productsCache instanceof DelegatingCache layered) {
+            layered.putAllIfValid(values, fillTokens);
+        } else {
+            values.forEach(productsCache::put);
+        }
+    }
+
+    ProductAggregateDto createProductAggregate(ProductDto productDto, List<RecommendationDto> recommendations, List<ReviewDto> reviews, String serviceAddress) {
+        // 1. Setup product info
+        int productId = productDto.getProductId();
+        String name = productDto.getName();
+        int weight = productDto.getWeight();
+
+        // 2. Copy summary recommendation info, if available
+        List<RecommendationSummaryDto> recommendationSummaries = (recommendations == null) ? null : recommendations.stream()
+                        .map(r -> new RecommendationSummaryDto(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))
+                        .collect(Collectors.toList());
+
+        // 3. Copy summary review info, if available
+        List<ReviewSummaryDto> reviewSummaries = (reviews == null) ? null : reviews.stream()
+                        .map(r -> new ReviewSummaryDto(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))
+                        .collect(Collectors.toList());
+
+        // 4. Create info regarding the involved microservices addresses
+        String productAddress = productDto.getServiceAddress();
+        String recommendationAddress = (recommendations != null && !recommendations.isEmpty()) ? recommendations.getFirst().getServiceAddress() : "";
+        String reviewAddress = (reviews != null && !reviews.isEmpty()) ? reviews.getFirst().getServiceAddress() : "";
+        ServiceAddressesDto serviceAddresses = new ServiceAddressesDto(serviceAddress, productAddress, recommendationAddress, reviewAddress);
+
+        // 5. Flag the aggregate as degraded if any part of it could not be retrieved, so that it is cached only briefly
+        boolean degraded = recommendations == null || reviews == null;
+        if (degraded) {
+            LOG.debug("createProductAggregate: degraded aggregate for productId: {}", productId);
+        }
+
+        return new ProductAggregateDto(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses, degraded);
+    }
+}
@@ -11,187 +11,359 @@ import com.fpivetti.api.exceptions.BadRequestException;
 import com.fpivetti.api.exceptions.InvalidInputException;
 import com.fpivetti.api.exceptions.NotFoundException;
 import com.fpivetti.util.http.HttpErrorInfo;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.timelimiter.TimeLimiterOperator;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Client of the core services. The calls to each service are isolated by a bulkhead, bounded by a time limiter
+ * and guarded by a circuit breaker, all named after the service and configured under resilience4j.
+ * The reads may be hedged by the {@link HedgingPolicy}, a hedged read counts as a single call for all three.
+ * Concurrent reads of the recommendations and reviews of single products may be coalesced into batch reads
+ * by a {@link RequestCoalescer}.
+ */
 @Component
 public class ProductCompositeIntegration implements ProductService, RecommendationService, ReviewService {
     private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeIntegration.class);
-    private final RestTemplate restTemplate;
+    private static final String PRODUCT = "product";
+    private static final String RECOMMENDATION = "recommendation";
+    private static final String REVIEW = "review";
+    private static final ParameterizedTypeReference<Map<Integer, ProductDto>> PRODUCTS_BY_ID = new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<Map<Integer, List<RecommendationDto>>> RECOMMENDATIONS_BY_ID = new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<Map<Integer, List<ReviewDto>>> REVIEWS_BY_ID = new ParameterizedTypeReference<>() {};
+    private final WebClient webClient;
     private final ObjectMapper mapper;
     private final String productServiceUrl;
     private final String recommendationServiceUrl;
     private final String reviewServiceUrl;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+    private final TimeLimiterRegistry timeLimiterRegistry;
+    private final MeterRegistry meterRegistry;
+    private final HedgingPolicy hedgingPolicy;
+    private final RequestCoalescer<Integer, Map<Integer, List<RecommendationDto>>> recommendationsCoalescer;
+    private final RequestCoalescer<Integer, Map<Integer, List<ReviewDto>>> reviewsCoalescer;
 
     @Autowired
-    public ProductCompositeIntegration(RestTemplate restTemplate, ObjectMapper mapper,
+    public ProductCompositeIntegration(WebClient webClient, ObjectMapper mapper,
+                                       CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry,
+                                       TimeLimiterRegistry timeLimiterRegistry, MeterRegistry meterRegistry,
+                                       HedgingPolicy hedgingPolicy,
                                        @Value("${app.product-service.host}") String productServiceHost,
                                        @Value("${app.product-service.port}") int productServicePort,
                                        @Value("${app.recommendation-service.host}") String recommendationServiceHost,
                                        @Value("${app.recommendation-service.port}") int recommendationServicePort,
                                        @Value("${app.review-service.host}") String reviewServiceHost,
-                                       @Value("${app.review-service.port}") int reviewServicePort) {
-        this.restTemplate = restTemplate;
+                                       @Value("${app.review-service.port}") int reviewServicePort,
+                                       @Value("${app.http-client.coalescing.enabled}") boolean coalescingEnabled,
+                                       @Value("${app.http-client.coalescing.window}") Duration coalescingWindow,
+                                       @Value("${app.http-client.coalescing.max-batch-size}") int coalescingMaxBatchSize) {
+        this.webClient = webClient;
         this.mapper = mapper;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+        this.timeLimiterRegistry = timeLimiterRegistry;
+        this.meterRegistry = meterRegistry;
+        this.hedgingPolicy = hedgingPolicy;
         productServiceUrl = "http://" + productServiceHost + ":" + productServicePort + "/product";
         recommendationServiceUrl = "http://" + recommendationServiceHost + ":" + recommendationServicePort + "/recommendation";
         reviewServiceUrl = "http://" + reviewServiceHost + ":" + reviewServicePort + "/review";
+        // The batch endpoints reject the whole list when one of the productIds is invalid
+        if (coalescingEnabled) {
+            recommendationsCoalescer = new RequestCoalescer<>(RECOMMENDATION, productIds -> getRecommendationsAsync(productIds),
+                    productId -> productId >= 1, coalescingWindow, coalescingMaxBatchSize, meterRegistry);
+            reviewsCoalescer = new RequestCoalescer<>(REVIEW, productIds -> getReviewsAsync(productIds),
+                    productId -> productId >= 1, coalescingWindow, coalescingMaxBatchSize, meterRegistry);
+        } else {
+            recommendationsCoalescer = null;
+            reviewsCoalescer = null;
+        }
     }
 
     @Override
     public ProductDto getProduct(int productId) {
-        try {
-            String url = productServiceUrl + "/" + productId;
-            LOG.debug("Will call the getProduct API on URL: {}", url);
-            ProductDto productDto = restTemplate.getForObject(url, ProductDto.class);
+        return getProductAsync(productId).block();
+    }
 
-            assert productDto != null;
-            LOG.debug("Found a product with id: {}", productDto.getProductId());
-            return productDto;
+    public Mono<ProductDto> getProductAsync(int productId) {
+        String url = productServiceUrl + "/" + productId;
+        LOG.debug("Will call the getProduct API on URL: {}", url);
+        return hedgingPolicy.hedge(PRODUCT, () -> webClient.get().uri(url)
+                        .retrieve()
+                        .bodyToMono(ProductDto.class)
+                        .onErrorMap(WebClientResponseException.class, this::handleHttpClientException))
+                .doOnNext(productDto -> LOG.debug("Found a product with id: {}", productDto.getProductId()))
+                .transform(call -> protect(PRODUCT, call));
+    }
 
-        }catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
-        }
+    @Override
+    public Map<Integer, ProductDto> getProducts(List<Integer> productIds) {
+        return getProductsAsync(productIds).block();
+    }
+
+    public Mono<Map<Integer, ProductDto>> getProductsAsync(List<Integer> productIds) {
+        String url = productServiceUrl + "?productIds=" + joinIds(productIds);
+        LOG.debug("Will call the getProducts API on URL: {}", url);
+        return hedgingPolicy.hedge(PRODUCT, () -> webClient.get().uri(url)
+                        .retrieve()
+                        .bodyToMono(PRODUCTS_BY_ID)
+                        .onErrorMap(WebClientResponseException.class, this::handleHttpClientException))
+                .doOnNext(products -> LOG.debug("Found {} of {} products", products.size(), productIds.size()))
+                .transform(call -> protect(PRODUCT, call));
     }
 
     @Override
     public ProductDto createProduct(ProductDto body) {
-        try {
-            LOG.debug("Will post a new product to URL: {}", productServiceUrl);
-            ProductDto productDto = restTemplate.postForObject(productServiceUrl, body, ProductDto.class);
+        LOG.debug("Will post a new product to URL: {}", productServiceUrl);
+        ProductDto productDto = webClient.post().uri(productServiceUrl)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(ProductDto.class)
+                .onErrorMap(WebClientResponseException.class, this::handleHttpClientException)
+                .transform(call -> protect(PRODUCT, call))
+                .block();
 
-            assert productDto != null;
-            LOG.debug("Created a product with id: {}", productDto.getProductId());
-            return productDto;
-
-        } catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
-        }
+        assert productDto != null;
+        LOG.debug("Created a product with id: {}", productDto.getProductId());
+        return productDto;
     }
 
     @Override
     public void deleteProduct(int productId) {
-        try {
-            String url = productServiceUrl + "/" + productId;
-            LOG.debug("Will call the deleteProduct API on URL: {}", url);
-            restTemplate.delete(url);
-            LOG.debug("Deleted a product with id: {}", productId);
-
-        } catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
-        }
+        String url = productServiceUrl + "/" + productId;
+        LOG.debug("Will call the deleteProduct API on URL: {}", url);
+        webClient.delete().uri(url)
+                .retrieve()
+                .toBodilessEntity()
+                .onErrorMap(WebClientResponseException.class, this::handleHttpClientException)
+                .transform(call -> protect(PRODUCT, call))
+                .block();
+        LOG.debug("Deleted a product with id: {}", productId);
     }
 
+    /**
+     * @return the recommendations of the product, null if they could not be retrieved
+     */
     @Override
     public List<RecommendationDto> getRecommendations(int productId) {
-        try {
-            String url = recommendationServiceUrl + "?productId=" + productId;
-            LOG.debug("Will call the getRecommendations API on URL: {}", url);
-            List<RecommendationDto> recommendations = restTemplate
-                    .exchange(url, HttpMethod.GET, null, new ParameterizedTypeReference<List<RecommendationDto>>(){})
-                    .getBody();
-
-            assert recommendations != null;
-            LOG.debug("Found {} recommendations for a product with id: {}", recommendations.size(), productId);
-            return recommendations;
-
-        } catch (Exception ex) {
-            LOG.warn("Got an exception while requesting recommendations, return zero recommendations: {}", ex.getMessage());
-            return new ArrayList<>();
+        return getRecommendationsAsync(productId).block();
+    }
+
+    /**
+     * @return the recommendations of the product, empty if they could not be retrieved
+     */
+    public Mono<List<RecommendationDto>> getRecommendationsAsync(int productId) {
+        if (recommendationsCoalescer != null) {
+            return recommendationsCoalescer.load(productId)
+                    .map(recommendations -> recommendations.getOrDefault(productId, List.of()));
         }
+        String url = recommendationServiceUrl + "?productId=" + productId;
+        LOG.debug("Will call the getRecommendations API on URL: {}", url);
+        return hedgingPolicy.hedge(RECOMMENDATION, () -> webClient.get().uri(url)
+                        .retrieve()
+                        .bodyToFlux(RecommendationDto.class)
+                        .collectList())
+                .doOnNext(recommendations -> LOG.debug("Found {} recommendations for a product with id: {}", recommendations.size(), productId))
+                .transform(call -> protect(RECOMMENDATION, call))
+                .onErrorResume(ex -> {
+                    LOG.warn("Got an exception while requesting recommendations, return no recommendations: {}", ex.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * @return the recommendations of each product, null if they could not be retrieved
+     */
+    @Override
+    public Map<Integer, List<RecommendationDto>> getRecommendations(List<Integer> productIds) {
+        return getRecommendationsAsync(productIds).block();
+    }
+
+    /**
+     * @return the recommendations of each product, empty if they could not be retrieved
+     */
+    public Mono<Map<Integer, List<RecommendationDto>>> getRecommendationsAsync(List<Integer> productIds) {
+        String url = recommendationServiceUrl + "?productIds=" + joinIds(productIds);
+        LOG.debug("Will call the getRecommendations API on URL: {}", url);
+        return hedgingPolicy.hedge(RECOMMENDATION, () -> webClient.get().uri(url)
+                        .retrieve()
+                        .bodyToMono(RECOMMENDATIONS_BY_ID))
+                .doOnNext(recommendations -> LOG.debug("Found recommendations for {} products", recommendations.size()))
+                .transform(call -> protect(RECOMMENDATION, call))
+                .onErrorResume(ex -> {
+                    LOG.warn("Got an exception while requesting recommendations, return no recommendations: {}", ex.getMessage());
+                    return Mono.empty();
+                });
     }
 
     @Override
     public RecommendationDto createRecommendation(RecommendationDto body) {
-        try {
-            LOG.debug("Will post a new recommendation to URL: {}", recommendationServiceUrl);
-            RecommendationDto recommendationDto = restTemplate.postForObject(recommendationServiceUrl, body, RecommendationDto.class);
-            assert recommendationDto != null;
-            if(recommendationDto.getRecommendationId() != 0) {
-                LOG.debug("Created a recommendation for product with id: {}", recommendationDto.getProductId());
-            }
-            return recommendationDto;
-
-        } catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
+        LOG.debug("Will post a new recommendation to URL: {}", recommendationServiceUrl);
+        RecommendationDto recommendationDto = webClient.post().uri(recommendationServiceUrl)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(RecommendationDto.class)
+                .onErrorMap(WebClientResponseException.class, this::handleHttpClientException)
+                .transform(call -> protect(RECOMMENDATION, call))
+                .block();
+        assert recommendationDto != null;
+        if(recommendationDto.getRecommendationId() != 0) {
+            LOG.debug("Created a recommendation for product with id: {}", recommendationDto.getProductId());
         }
+        return recommendationDto;
     }
 
     @Override
     public void deleteRecommendations(int productId) {
-        try {
-            String url = recommendationServiceUrl + "?productId=" + productId;
-            LOG.debug("Will call the deleteRecommendations API on URL: {}", url);
-            restTemplate.delete(url);
-            LOG.debug("Deleted all the recommendations for product with id: {}", productId);
-
-        } catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
-        }
+        String url = recommendationServiceUrl + "?productId=" + productId;
+        LOG.debug("Will call the deleteRecommendations API on URL: {}", url);
+        webClient.delete().uri(url)
+                .retrieve()
+                .toBodilessEntity()
+                .onErrorMap(WebClientResponseException.class, this::handleHttpClientException)
+                .transform(call -> protect(RECOMMENDATION, call))
+                .block();
+        LOG.debug("Deleted all the recommendations for product with id: {}", productId);
     }
 
+    /**
+     * @return the reviews of the product, null if they could not be retrieved
+     */
     @Override
     public List<ReviewDto> getReviews(int productId) {
-        try {
-            String url = reviewServiceUrl + "?productId=" + productId;
-            LOG.debug("Will call the getReviews API on URL: {}", url);
-            List<ReviewDto> reviews = restTemplate
-                    .exchange(url, HttpMethod.GET, null, new ParameterizedTypeReference<List<ReviewDto>>(){})
-                    .getBody();
-
-            assert reviews != null;
-            LOG.debug("Found {} reviews for a product with id: {}", reviews.size(), productId);
-            return reviews;
-
-        } catch (Exception ex) {
-            LOG.warn("Got an exception while requesting reviews, return zero reviews: {}", ex.getMessage());
-            return new ArrayList<>();
+        return getReviewsAsync(productId).block();
+    }
+
+    /**
+     * @return the reviews of the product, empty if they could not be retrieved
+     */
+    public Mono<List<ReviewDto>> getReviewsAsync(int productId) {
+        if (reviewsCoalescer != null) {
+            return reviewsCoalescer.load(productId)
+                    .map(reviews -> reviews.getOrDefault(productId, List.of()));
         }
+        String url = reviewServiceUrl + "?productId=" + productId;
+        LOG.debug("Will call the getReviews API on URL: {}", url);
+        return hedgingPolicy.hedge(REVIEW, () -> webClient.get().uri(url)
+                        .retrieve()
+                        .bodyToFlux(ReviewDto.class)
+                        .collectList())
+                .doOnNext(reviews -> LOG.debug("Found {} reviews for a product with id: {}", reviews.size(), productId))
+                .transform(call -> protect(REVIEW, call))
+                .onErrorResume(ex -> {
+                    LOG.warn("Got an exception while requesting reviews, return no reviews: {}", ex.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * @return the reviews of each product, null if they could not be retrieved
+     */
+    @Override
+    public Map<Integer, List<ReviewDto>> getReviews(List<Integer> productIds) {
+        return getReviewsAsync(productIds).block();
+    }
+
+    /**
+     * @return the reviews of each product, empty if they could not be retrieved
+     */
+    public Mono<Map<Integer, List<ReviewDto>>> getReviewsAsync(List<Integer> productIds) {
+        String url = reviewServiceUrl + "?productIds=" + joinIds(productIds);
+        LOG.debug("Will call the getReviews API on URL: {}", url);
+        return hedgingPolicy.hedge(REVIEW, () -> webClient.get().uri(url)
+                        .retrieve()
+                        .bodyToMono(REVIEWS_BY_ID))
+                .doOnNext(reviews -> LOG.debug("Found reviews for {} products", reviews.size()))
+                .transform(call -> protect(REVIEW, call))
+                .onErrorResume(ex -> {
+                    LOG.warn("Got an exception while requesting reviews, return no reviews: {}", ex.getMessage());
+                    return Mono.empty();
+                });
     }
 
     @Override
     public ReviewDto createReview(ReviewDto body) {
-        try {
-            LOG.debug("Will post a new review to URL: {}", reviewServiceUrl);
-            ReviewDto reviewDto = restTemplate.postForObject(reviewServiceUrl, body, ReviewDto.class);
-            assert reviewDto != null;
-            if(reviewDto.getReviewId() != 0) {
-                LOG.debug("Created a review for product with id: {}", reviewDto.getProductId());
-            }
-            return reviewDto;
-
-        } catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
+        LOG.debug("Will post a new review to URL: {}", reviewServiceUrl);
+        ReviewDto reviewDto = webClient.post().uri(reviewServiceUrl)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(ReviewDto.class)
+                .onErrorMap(WebClientResponseException.class, this::handleHttpClientException)
+                .transform(call -> protect(REVIEW, call))
+                .block();
+        assert reviewDto != null;
+        if(reviewDto.getReviewId() != 0) {
+            LOG.debug("Created a review for product with id: {}", reviewDto.getProductId());
         }
+        return reviewDto;
     }
 
     @Override
     public void deleteReviews(int productId) {
-        try {
-            String url = reviewServiceUrl + "?productId=" + productId;
-            LOG.debug("Will call the deleteReviews API on URL: {}", url);
-            restTemplate.delete(url);
-            LOG.debug("Deleted all the reviews for product with id: {}", productId);
+        String url = reviewServiceUrl + "?productId=" + productId;
+        LOG.debug("Will call the deleteReviews API on URL: {}", url);
+        webClient.delete().uri(url)
+                .retrieve()
+                .toBodilessEntity()
+                .onErrorMap(WebClientResponseException.class, this::handleHttpClientException)
+                .transform(call -> protect(REVIEW, call))
+                .block();
+        LOG.debug("Deleted all the reviews for product with id: {}", productId);
+    }
 
-        } catch (HttpClientErrorException ex) {
-            throw handleHttpClientException(ex);
-        }
+    private static String joinIds(List<Integer> productIds) {
+        return productIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Client errors mapped to the api exceptions are not failures of the downstream service, the circuit
+     * breakers are configured to ignore them.
+     */
+    private <T> Mono<T> protect(String downstream, Mono<T> call) {
+        return call
+                .transformDeferred(TimeLimiterOperator.of(timeLimiterRegistry.timeLimiter(downstream)))
+                .transformDeferred(BulkheadOperator.of(bulkheadRegistry.bulkhead(downstream)))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreakerRegistry.circuitBreaker(downstream)))
+                .doOnError(BulkheadFullException.class, ex -> recordRejection(downstream, "bulkhead-full"))
+                .doOnError(CallNotPermittedException.class, ex -> recordRejection(downstream, "circuit-open"))
+                .doOnError(TimeoutException.class, ex -> recordRejection(downstream, "timeout"));
+    }
+
+    private void recordRejection(String downstream, String reason) {
+        LOG.debug("Call to the {} service rejected: {}", downstream, reason);
+        Counter.builder("composite.downstream.rejections")
+                .description("Calls to the core services that failed fast or timed out")
+                .tags("downstream", downstream, "reason", reason)
+                .register(meterRegistry)
+                .increment();
     }
 
-    private RuntimeException handleHttpClientException(HttpClientErrorException ex) {
+    private RuntimeException handleHttpClientException(WebClientResponseException ex) {
         switch (Objects.requireNonNull(HttpStatus.resolve(ex.getStatusCode().value()))) {
             case NOT_FOUND:
                 return new NotFoundException(getErrorMessage(ex));
@@ -206,7 +378,7 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         }
     }
 
-    private String getErrorMessage(HttpClientErrorException ex) {
+    private String getErrorMessage(WebClientResponseException ex) {
         try {
             return mapper.readValue(ex.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
         } catch (IOException ioException) {
@@ -4,70 +4,170 @@ import com.fpivetti.api.composite.product.*;
 import com.fpivetti.api.core.product.ProductDto;
 import com.fpivetti.api.core.recommendation.RecommendationDto;
 import com.fpivetti.api.core.review.ReviewDto;
-import com.fpivetti.util.http.ServiceUtil;
+import com.fpivetti.api.exceptions.NotFoundException;
+import com.fpivetti.microservices.composite.product.cache.DelegatingCache;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache.Fragment;
+import com.fpivetti.util.http.ProductIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
 
 @RestController
 public class ProductCompositeServiceImpl implements ProductCompositeService {
     private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeServiceImpl.class);
-    private final ServiceUtil serviceUtil;
     private final ProductCompositeIntegration integration;
+    private final ProductAggregateLoader loader;
+    private final ProductFragmentLoader fragmentLoader;
+    private final FragmentCache fragmentCache;
+    private final Cache productsCache;
+    private final Scheduler blockingScheduler;
+    private final CacheMode cacheMode;
+    private final boolean reactiveCache;
+    private final HotKeyRecorder hotKeys;
+
+    /**
+     * AGGREGATE caches each product aggregate as a whole in the layered products cache, FRAGMENTS caches its parts
+     * separately in the {@link FragmentCache}.
+     */
+    public enum CacheMode { AGGREGATE, FRAGMENTS }
 
     @Autowired
-    public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ProductCompositeIntegration integration) {
-        this.serviceUtil = serviceUtil;
+    public ProductCompositeServiceImpl(ProductCompositeIntegration integration, ProductAggregateLoader loader,
+                                       ProductFragmentLoader fragmentLoader, FragmentCache fragmentCache,
+                                       CacheManager cacheManager, Scheduler blockingScheduler, HotKeyRecorder hotKeys,
+                                       @Value("${app.cache.mode}") CacheMode cacheMode,
+                                       @Value("${app.cache.reactive}") boolean reactiveCache) {
         this.integration = integration;
+        this.loader = loader;
+        this.fragmentLoader = fragmentLoader;
+        this.fragmentCache = fragmentCache;
+        this.productsCache = cacheManager.getCache("products");
+        this.blockingScheduler = blockingScheduler;
+        this.cacheMode = cacheMode;
+        this.reactiveCache = reactiveCache;
+        this.hotKeys = hotKeys;
     }
 
     @Override
-    @Cacheable(cacheNames = "products", key = "#productId")
-    public ProductAggregateDto getProduct(int productId) {
-        try {
-            LOG.debug("getCompositeProduct: lookup a product aggregate for productId: {}", productId);
-            ProductDto productDto = integration.getProduct(productId);
-            List<RecommendationDto> recommendations = integration.getRecommendations(productId);
-            List<ReviewDto> reviews = integration.getReviews(productId);
-            LOG.debug("getCompositeProduct: aggregate entity found for productId: {}", productId);
-            return createProductAggregate(productDto, recommendations, reviews, serviceUtil.getServiceAddress());
-        } catch (Exception e) {
-            LOG.warn("getCompositeProduct failed: {}", e.getMessage());
-            throw e;
+    public Mono<ProductAggregateDto> getProduct(int productId) {
+        if (productId >= 1) {
+            hotKeys.record(productId);
+        }
+        if (cacheMode == CacheMode.FRAGMENTS) {
+            return Mono.fromCallable(() -> fragmentLoader.getProduct(productId)).subscribeOn(blockingScheduler);
+        }
+        if (reactiveCache) {
+            return loader.getProductAsync(productId);
         }
+        return Mono.defer(() -> {
+            // Near cache hits are answered on the event loop, anything else may block and is offloaded
+            Cache.ValueWrapper local = (productsCache instanceof DelegatingCache layered) ? layered.getLocal(productId) : null;
+            if (local != null) {
+                LOG.debug("getCompositeProduct: aggregate found in memory for productId: {}", productId);
+                return Mono.just((ProductAggregateDto) local.get());
+            }
+            return Mono.fromCallable(() -> loader.getProduct(productId)).subscribeOn(blockingScheduler);
+        });
+    }
+
+    @Override
+    public Mono<List<ProductAggregateDto>> getProducts(List<Integer> productIds) {
+        return Mono.defer(() -> {
+            ProductIds.validate(productIds);
+            List<Integer> distinctIds = productIds.stream().distinct().toList();
+            distinctIds.forEach(hotKeys::record);
+            if (cacheMode == CacheMode.FRAGMENTS) {
+                return Mono.fromCallable(() -> inRequestedOrder(distinctIds, fragmentLoader.getProducts(distinctIds)))
+                        .subscribeOn(blockingScheduler);
+            }
+            Map<Integer, ProductAggregateDto> aggregates = new HashMap<>();
+            List<Integer> misses = new ArrayList<>();
+            for (Integer productId : distinctIds) {
+                try {
+                    Cache.ValueWrapper local = (productsCache instanceof DelegatingCache layered) ? layered.getLocal(productId) : null;
+                    if (local != null) {
+                        aggregates.put(productId, (ProductAggregateDto) local.get());
+                    } else {
+                        misses.add(productId);
+                    }
+                } catch (NotFoundException ex) {
+                    LOG.debug("getCompositeProducts: productId: {} is known to be missing", productId);
+                }
+            }
+            if (misses.isEmpty()) {
+                return Mono.just(inRequestedOrder(distinctIds, aggregates));
+            }
+            return Mono.fromCallable(() -> loader.getProducts(misses))
+                    .subscribeOn(blockingScheduler)
+                    .map(loaded -> {
+                        aggregates.putAll(loaded);
+                        return inRequestedOrder(distinctIds, aggregates);
+                    });
+        });
     }
 
+    /**
+     * Write-through: once all the entities are created, the new aggregate replaces whatever the cache held for
+     * the productId, a tombstone or a degraded aggregate included. If the creation fails half-way the cached
+     * entry is evicted instead, since the product may now exist.
+     */
     @Override
     public void createProduct(ProductAggregateDto body) {
         try {
             LOG.debug("createCompositeProduct: create a new composite entity for productId: {}", body.getProductId());
             ProductDto productDto = new ProductDto(body.getProductId(), body.getName(), body.getWeight(), null);
-            integration.createProduct(productDto);
+            productDto = Objects.requireNonNullElse(integration.createProduct(productDto), productDto);
 
+            List<RecommendationDto> recommendations = null;
             if (body.getRecommendations() != null) {
-                body.getRecommendations().forEach(r -> {
+                recommendations = new ArrayList<>();
+                for (RecommendationSummaryDto r : body.getRecommendations()) {
                     RecommendationDto recommendationDto = new RecommendationDto(body.getProductId(),
                             r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null);
-                    integration.createRecommendation(recommendationDto);
-                });
+                    recommendationDto = Objects.requireNonNullElse(integration.createRecommendation(recommendationDto), recommendationDto);
+                    // Recommendations with an invalid id are skipped by the recommendation service
+                    if (recommendationDto.getRecommendationId() > 0) {
+                        recommendations.add(recommendationDto);
+                    }
+                }
             }
+            List<ReviewDto> reviews = null;
             if (body.getReviews() != null) {
-                body.getReviews().forEach(r -> {
+                reviews = new ArrayList<>();
+                for (ReviewSummaryDto r : body.getReviews()) {
                     ReviewDto reviewDto = new ReviewDto(body.getProductId(), r.getReviewId(), r.getAuthor(),
                             r.getSubject(), r.getContent(), null);
-                    integration.createReview(reviewDto);
-                });
+                    reviewDto = Objects.requireNonNullElse(integration.createReview(reviewDto), reviewDto);
+                    if (reviewDto.getReviewId() > 0) {
+                        reviews.add(reviewDto);
+                    }
+                }
             }
             LOG.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
+            if (cacheMode == CacheMode.FRAGMENTS) {
+                fragmentLoader.putProduct(productDto, recommendations, reviews);
+            } else {
+                loader.putProduct(productDto, recommendations, reviews);
+            }
 
         } catch (Exception e) {
             LOG.warn("createCompositeProduct failed: {}", e.getMessage());
+            evictQuietly(body.getProductId());
             throw e;
         }
     }
@@ -81,6 +181,9 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
             integration.deleteRecommendations(productId);
             integration.deleteReviews(productId);
             LOG.debug("deleteCompositeProduct: aggregate entities deleted for productId: {}", productId);
+            if (cacheMode == CacheMode.FRAGMENTS) {
+                fragmentCache.evict(productId, EnumSet.allOf(Fragment.class));
+            }
         } catch (Exception e) {
             LOG.warn("deleteCompositeProduct failed: {}", e.getMessage());
             LOG.debug("deleteCompositeProduct: deletes any recommendations or reviews still left and then throws the exception");
@@ -90,28 +193,19 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         }
     }
 
-    private ProductAggregateDto createProductAggregate(ProductDto productDto, List<RecommendationDto> recommendations, List<ReviewDto> reviews, String serviceAddress) {
-        // 1. Setup product info
-        int productId = productDto.getProductId();
-        String name = productDto.getName();
-        int weight = productDto.getWeight();
-
-        // 2. Copy summary recommendation info, if available
-        List<RecommendationSummaryDto> recommendationSummaries = (recommendations == null) ? null : recommendations.stream()
-                        .map(r -> new RecommendationSummaryDto(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))
-                        .collect(Collectors.toList());
-
-        // 3. Copy summary review info, if available
-        List<ReviewSummaryDto> reviewSummaries = (reviews == null) ? null : reviews.stream()
-                        .map(r -> new ReviewSummaryDto(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))
-                        .collect(Collectors.toList());
-
-        // 4. Create info regarding the involved microservices addresses
-        String productAddress = productDto.getServiceAddress();
-        String recommendationAddress = (recommendations != null && !recommendations.isEmpty()) ? recommendations.getFirst().getServiceAddress() : "";
-        String reviewAddress = (reviews != null && !reviews.isEmpty()) ? reviews.getFirst().getServiceAddress() : "";
-        ServiceAddressesDto serviceAddresses = new ServiceAddressesDto(serviceAddress, productAddress, recommendationAddress, reviewAddress);
+    private static List<ProductAggregateDto> inRequestedOrder(List<Integer> productIds, Map<Integer, ProductAggregateDto> aggregates) {
+        return productIds.stream().map(aggregates::get).filter(Objects::nonNull).toList();
+    }
 
-        return new ProductAggregateDto(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses);
+    private void evictQuietly(int productId) {
+        try {
+            if (cacheMode == CacheMode.FRAGMENTS) {
+                fragmentCache.evict(productId, EnumSet.allOf(Fragment.class));
+            } else if (productsCache != null) {
+                productsCache.evict(productId);
+            }
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to evict the cached aggregate of productId: {}, {}", productId, ex.getMessage());
+        }
     }
 }
@@ -0,0 +1,159 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import com.fpivetti.api.composite.product.ProductAggregateDto;
+import com.fpivetti.api.core.product.ProductDto;
+import com.fpivetti.api.core.recommendation.RecommendationDto;
+import com.fpivetti.api.core.review.ReviewDto;
+import com.fpivetti.api.exceptions.NotFoundException;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache.Fragment;
+import com.fpivetti.microservices.composite.product.cache.Tombstone;
+import com.fpivetti.util.http.ServiceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple3;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Builds the product aggregates from the {@link FragmentCache} in the fragments cache mode: only the fragments
+ * missing from the cache are read, with one batch call per core service, and then cached unless they have been
+ * written or evicted in the meantime.
+ * Loading blocks on the cache and on the core services, so it must not be called from an event loop thread.
+ */
+@Component
+public class ProductFragmentLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(ProductFragmentLoader.class);
+    private final ServiceUtil serviceUtil;
+    private final ProductCompositeIntegration integration;
+    private final ProductAggregateLoader aggregateLoader;
+    private final FragmentCache fragmentCache;
+
+    @Autowired
+    public ProductFragmentLoader(ServiceUtil serviceUtil, ProductCompositeIntegration integration,
+                                 ProductAggregateLoader aggregateLoader, FragmentCache fragmentCache) {
+        this.serviceUtil = serviceUtil;
+        this.integration = integration;
+        this.aggregateLoader = aggregateLoader;
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * @throws NotFoundException if the product does not exist
+     */
+    public ProductAggregateDto getProduct(int productId) {
+        Object result = load(List.of(productId)).get(productId);
+        if (result instanceof Tombstone tombstone) {
+            throw new NotFoundException(tombstone.getMessage());
+        }
+        return (ProductAggregateDto) result;
+    }
+
+    /**
+     * @return the aggregates of the products found, by productId
+     */
+    public Map<Integer, ProductAggregateDto> getProducts(List<Integer> productIds) {
+        Map<Integer, ProductAggregateDto> aggregates = new LinkedHashMap<>();
+        load(productIds).forEach((productId, result) -> {
+            if (result instanceof ProductAggregateDto aggregate) {
+                aggregates.put(productId, aggregate);
+            }
+        });
+        return aggregates;
+    }
+
+    /**
+     * Writes the fragments of a product that has just been created to the cache. Missing recommendations or reviews
+     * were not part of the creation, so their fragments are left as they are.
+     */
+    public void putProduct(ProductDto productDto, List<RecommendationDto> recommendations, List<ReviewDto> reviews) {
+        int productId = productDto.getProductId();
+        Map<Fragment, Map<Integer, Object>> fragments = new EnumMap<>(Fragment.class);
+        fragments.put(Fragment.PRODUCT, Map.of(productId, productDto));
+        if (recommendations != null) {
+            fragments.put(Fragment.RECOMMENDATIONS, Map.of(productId, recommendations));
+        }
+        if (reviews != null) {
+            fragments.put(Fragment.REVIEWS, Map.of(productId, reviews));
+        }
+        fragmentCache.putAll(fragments);
+        LOG.debug("putProduct: fragments: {} written through for productId: {}", fragments.keySet(), productId);
+    }
+
+    /**
+     * @return the aggregate or the tombstone of each product, by productId
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Object> load(List<Integer> productIds) {
+        FragmentCache.Lookup cached = fragmentCache.getAll(productIds);
+        Map<Integer, Object> products = cached.found().get(Fragment.PRODUCT);
+        Map<Integer, Object> recommendations = cached.found().get(Fragment.RECOMMENDATIONS);
+        Map<Integer, Object> reviews = cached.found().get(Fragment.REVIEWS);
+
+        // The other fragments of the products known to be missing are not needed
+        List<Integer> existing = productIds.stream().filter(id -> !(products.get(id) instanceof Tombstone)).toList();
+        List<Integer> missingProducts = existing.stream().filter(id -> !products.containsKey(id)).toList();
+        List<Integer> missingRecommendations = existing.stream().filter(id -> !recommendations.containsKey(id)).toList();
+        List<Integer> missingReviews = existing.stream().filter(id -> !reviews.containsKey(id)).toList();
+        if (!missingProducts.isEmpty() || !missingRecommendations.isEmpty() || !missingReviews.isEmpty()) {
+            LOG.debug("getCompositeProducts: load the fragments of products: {}, recommendations: {}, reviews: {}",
+                    missingProducts, missingRecommendations, missingReviews);
+            Tuple3<Map<Integer, ProductDto>, Optional<Map<Integer, List<RecommendationDto>>>, Optional<Map<Integer, List<ReviewDto>>>> parts = Mono.zip(
+                    missingProducts.isEmpty() ? Mono.just(Map.<Integer, ProductDto>of()) : integration.getProductsAsync(missingProducts),
+                    missingRecommendations.isEmpty() ? Mono.just(Optional.of(Map.<Integer, List<RecommendationDto>>of()))
+                            : integration.getRecommendationsAsync(missingRecommendations).map(Optional::of).defaultIfEmpty(Optional.empty()),
+                    missingReviews.isEmpty() ? Mono.just(Optional.of(Map.<Integer, List<ReviewDto>>of()))
+                            : integration.getReviewsAsync(missingReviews).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                    .switchIfEmpty(Mono.error(new IllegalStateException("No products returned for productIds: " + missingProducts)))
+                    .block();
+
+            Map<Fragment, Map<Integer, Object>> loaded = new EnumMap<>(Fragment.class);
+            loaded.put(Fragment.PRODUCT, new HashMap<>());
+            loaded.put(Fragment.RECOMMENDATIONS, new HashMap<>());
+            loaded.put(Fragment.REVIEWS, new HashMap<>());
+            for (Integer productId : missingProducts) {
+                ProductDto productDto = parts.getT1().get(productId);
+                Object product = (productDto != null) ? productDto : new Tombstone("No product found for productId: " + productId);
+                products.put(productId, product);
+                loaded.get(Fragment.PRODUCT).put(productId, product);
+            }
+            // Fragments that could not be retrieved are left out of the cache and make their aggregates degraded
+            parts.getT2().ifPresent(found -> missingRecommendations.forEach(productId -> {
+                List<RecommendationDto> value = found.getOrDefault(productId, List.of());
+                recommendations.put(productId, value);
+                if (!(products.get(productId) instanceof Tombstone)) {
+                    loaded.get(Fragment.RECOMMENDATIONS).put(productId, value);
+                }
+            }));
+            parts.getT3().ifPresent(found -> missingReviews.forEach(productId -> {
+                List<ReviewDto> value = found.getOrDefault(productId, List.of());
+                reviews.put(productId, value);
+                if (!(products.get(productId) instanceof Tombstone)) {
+                    loaded.get(Fragment.REVIEWS).put(productId, value);
+                }
+            }));
+            fragmentCache.putAllIfValid(loaded, cached.fillTokens());
+        }
+
+        Map<Integer, Object> results = new LinkedHashMap<>();
+        for (Integer productId : productIds) {
+            Object product = products.get(productId);
+            if (product instanceof ProductDto productDto) {
+                results.put(productId, aggregateLoader.createProductAggregate(productDto,
+                        (List<RecommendationDto>) recommendations.get(productId), (List<ReviewDto>) reviews.get(productId),
+                        serviceUtil.getServiceAddress()));
+            } else {
+                results.put(productId, product);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,130 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * DataLoader-style coalescing: the keys requested within the window, up to maxBatchSize, are sent together
+ * as one batch and every caller receives the result of the whole batch, from which it picks its own key.
+ * An error or an empty result of the batch is received by all of its callers, so the keys the batch endpoint
+ * would reject, failing the batch of the others, are sent on their own. The key of a caller cancelling
+ * before the batch is sent is left out of it, unless another caller is waiting for it.
+ */
+public class RequestCoalescer<K, R> {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private final String name;
+    private final Function<List<K>, Mono<R>> batchLoader;
+    private final Predicate<K> batchable;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Scheduler scheduler;
+    private final DistributionSummary batchSize;
+    private Batch<K, R> pending;
+
+    /**
+     * @param batchable whether a key can be sent with others, the ones failing it are sent alone
+     */
+    public RequestCoalescer(String name, Function<List<K>, Mono<R>> batchLoader, Predicate<K> batchable,
+                            Duration window, int maxBatchSize, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.batchLoader = batchLoader;
+        this.batchable = batchable;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Schedulers.parallel();
+        this.batchSize = DistributionSummary.builder("composite.coalesced.batch.size")
+                .description("Number of keys sent to a core service in a single coalesced request")
+                .tags("downstream", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the result of the batch the key is sent with, the key is added to a batch on subscription
+     */
+    public Mono<R> load(K key) {
+        if (!batchable.test(key)) {
+            return Mono.defer(() -> batchLoader.apply(List.of(key)));
+        }
+        return Mono.defer(() -> {
+            Batch<K, R> full = null;
+            Batch<K, R> batch;
+            synchronized (this) {
+                if (pending == null) {
+                    Batch<K, R> created = new Batch<>();
+                    pending = created;
+                    scheduler.schedule(() -> dispatch(created), window.toNanos(), TimeUnit.NANOSECONDS);
+                }
+                batch = pending;
+                batch.keys.merge(key, 1, Integer::sum);
+                if (batch.keys.size() >= maxBatchSize) {
+                    full = batch;
+                    pending = null;
+                }
+            }
+            if (full != null) {
+                dispatch(full);
+            }
+            return batch.result.asMono().doOnCancel(() -> cancel(batch, key));
+        });
+    }
+
+    private synchronized void cancel(Batch<K, R> batch, K key) {
+        if (!batch.dispatched) {
+            batch.keys.computeIfPresent(key, (k, callers) -> (callers > 1) ? callers - 1 : null);
+        }
+    }
+
+    private void dispatch(Batch<K, R> batch) {
+        List<K> keys;
+        synchronized (this) {
+            if (batch.dispatched) {
+                return;
+            }
+            batch.dispatched = true;
+            if (pending == batch) {
+                pending = null;
+            }
+            keys = new ArrayList<>(batch.keys.keySet());
+        }
+        if (keys.isEmpty()) {
+            batch.result.tryEmitEmpty();
+            return;
+        }
+        batchSize.record(keys.size());
+        LOG.debug("Sending a coalesced {} request for {} keys", name, keys.size());
+        Mono<R> call;
+        try {
+            call = batchLoader.apply(keys);
+        } catch (RuntimeException ex) {
+            batch.result.tryEmitError(ex);
+            return;
+        }
+        call.subscribe(
+                batch.result::tryEmitValue,
+                batch.result::tryEmitError,
+                batch.result::tryEmitEmpty);
+    }
+
+    private static class Batch<K, R> {
+        // The callers waiting for each key
+        private final Map<K, Integer> keys = new LinkedHashMap<>();
+        private final Sinks.One<R> result = Sinks.one();
+        private boolean dispatched;
+    }
+}
@@ -0,0 +1,175 @@
+package com.fpivetti.microservices.composite.product.services;
+
+import com.fpivetti.microservices.composite.product.cache.CacheValueSerializer;
+import com.fpivetti.microservices.composite.product.cache.DelegatingCache;
+import com.fpivetti.microservices.composite.product.cache.RedisCacheKeys;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeServiceImpl.CacheMode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers the single product reads whose aggregate is in Redis in the WIRE format with the stored JSON itself:
+ * the bytes read from Redis are wrapped into the response buffer, the aggregate is never deserialized nor serialized.
+ *
+ * Anything else goes through the controller: near cache hits, misses, tombstones, values in another format,
+ * entries within the refresh-ahead window, so that they are still refreshed, and Redis failures.
+ * Raw hits do not fill the near cache.
+ */
+@Component
+public class ZeroCopyProductFilter implements WebFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(ZeroCopyProductFilter.class);
+    private static final Pattern PRODUCT_PATH = Pattern.compile("/product-composite/(\\d{1,9})");
+    private static final String CACHE_NAME = "products";
+    static final String SERVED = "served";
+    static final String FALLBACK = "fallback";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final CacheValueSerializer serializer;
+    private final RedisCacheKeys redisKeys;
+    private final Cache productsCache;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration refreshWindow;
+    private final HotKeyRecorder hotKeys;
+
+    private record Stored(ByteBuffer value, long ttlMillis) {
+    }
+
+    @Autowired
+    public ZeroCopyProductFilter(ReactiveStringRedisTemplate redisTemplate, CacheValueSerializer productsValueSerializer,
+                                 RedisCacheKeys redisKeys, CacheManager cacheManager, MeterRegistry meterRegistry, HotKeyRecorder hotKeys,
+                                 @Value("${app.cache.mode}") CacheMode cacheMode,
+                                 @Value("${app.cache.codec.format}") CacheValueSerializer.Format format,
+                                 @Value("${app.cache.refresh.ahead.enabled}") boolean refreshAhead,
+                                 @Value("${app.cache.refresh.ahead.window}") Duration refreshWindow) {
+        this.redisTemplate = redisTemplate;
+        this.serializer = productsValueSerializer;
+        this.redisKeys = redisKeys;
+        this.productsCache = cacheManager.getCache(CACHE_NAME);
+        this.meterRegistry = meterRegistry;
+        this.enabled = cacheMode == CacheMode.AGGREGATE && format == CacheValueSerializer.Format.WIRE;
+        this.refreshWindow = refreshAhead ? refreshWindow : Duration.ZERO;
+        this.hotKeys = hotKeys;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Integer productId = enabled ? productId(exchange.getRequest()) : null;
+        if (productId == null || isLocal(productId)) {
+            return chain.filter(exchange);
+        }
+        return readStored(productId)
+                .flatMap(stored -> {
+                    ByteBuffer json = servable(stored);
+                    if (json == null) {
+                        record(FALLBACK);
+                        return chain.filter(exchange);
+                    }
+                    LOG.debug("getCompositeProduct: stored JSON served for productId: {}", productId);
+                    record(SERVED);
+                    // The controller, which records the other requests, is bypassed
+                    hotKeys.record(productId);
+                    return write(exchange.getResponse(), json);
+                });
+    }
+
+    private Integer productId(ServerHttpRequest request) {
+        if (request.getMethod() != HttpMethod.GET || !acceptsJson(request.getHeaders().getAccept())) {
+            return null;
+        }
+        Matcher matcher = PRODUCT_PATH.matcher(request.getPath().pathWithinApplication().value());
+        if (!matcher.matches()) {
+            return null;
+        }
+        int productId = Integer.parseInt(matcher.group(1));
+        return (productId >= 1) ? productId : null;
+    }
+
+    private static boolean acceptsJson(List<MediaType> accepted) {
+        return accepted.isEmpty() || accepted.stream().anyMatch(type -> type.isCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Near cache hits are already answered without any serialization work, and their tombstones must be honored.
+     */
+    private boolean isLocal(int productId) {
+        try {
+            return productsCache instanceof DelegatingCache layered && layered.getLocal(productId) != null;
+        } catch (RuntimeException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * @return the value and its remaining time to live, an empty Optional if there is none or Redis cannot be read
+     */
+    private Mono<Optional<Stored>> readStored(int productId) {
+        ByteBuffer redisKey = ByteBuffer.wrap(redisKeys.redisKey(CACHE_NAME, productId));
+        return redisTemplate.execute(connection -> Mono.zip(
+                        connection.stringCommands().get(redisKey),
+                        connection.keyCommands().pTtl(redisKey),
+                        Stored::new))
+                .next()
+                .map(Optional::of)
+                .onErrorResume(ex -> {
+                    LOG.warn("Failed to read the stored aggregate of productId: {}, {}", productId, ex.getMessage());
+                    return Mono.empty();
+                })
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    private ByteBuffer servable(Optional<Stored> stored) {
+        if (stored.isEmpty()) {
+            return null;
+        }
+        long ttl = stored.get().ttlMillis();
+        if (ttl != -1 && ttl <= refreshWindow.toMillis()) {
+            return null;
+        }
+        try {
+            return serializer.wireJson(stored.get().value());
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to read the stored aggregate, {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private static Mono<Void> write(ServerHttpResponse response, ByteBuffer json) {
+        response.setStatusCode(HttpStatus.OK);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        response.getHeaders().setContentLength(json.remaining());
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(json)));
+    }
+
+    private void record(String result) {
+        Counter.builder("cache.zero.copy")
+                .description("Single product reads answered with the stored JSON, or falling back to the controller")
+                .tags("cache", CACHE_NAME, "result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
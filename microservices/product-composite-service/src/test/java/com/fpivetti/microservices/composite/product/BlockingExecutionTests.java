@@ -0,0 +1,125 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import com.fpivetti.util.execution.BlockingExecutionConfig;
+import com.fpivetti.util.execution.ExecutionModel;
+import com.fpivetti.util.http.GlobalControllerExceptionHandler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.reactive.WebFluxAutoConfiguration;
+import org.springframework.boot.test.context.runner.ReactiveWebApplicationContextRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class BlockingExecutionTests {
+	private final ReactiveWebApplicationContextRunner contextRunner = new ReactiveWebApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(WebFluxAutoConfiguration.class))
+			.withUserConfiguration(BlockingExecutionConfig.class)
+			.withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+			.withPropertyValues("app.execution.model=EVENT_LOOP", "app.execution.bounded.max-threads=1",
+					"app.execution.bounded.queue-capacity=1");
+
+	@Test
+	void eventLoopModelIsRejectedWithBlockingControllerMethods() {
+		contextRunner.withBean(BlockingController.class).run(context -> {
+			assertThat(context).hasFailed();
+			assertThat(context.getStartupFailure()).isInstanceOf(IllegalStateException.class)
+					.hasMessageContaining("BlockingController#get");
+		});
+	}
+
+	@Test
+	void eventLoopModelIsAcceptedWithReactiveControllerMethods() {
+		contextRunner.withBean(ReactiveController.class).run(context -> assertThat(context).hasNotFailed());
+	}
+
+	@Test
+	void eventLoopModelOffloadsTheBlockingScheduler() {
+		Scheduler scheduler = createConfig(ExecutionModel.EVENT_LOOP).blockingScheduler();
+		Thread caller = Thread.currentThread();
+		assertNotSame(caller, Mono.fromCallable(Thread::currentThread).subscribeOn(scheduler).block());
+	}
+
+	@Test
+	void boundedSchedulerRejectsExcessWork() throws InterruptedException {
+		BlockingExecutionConfig config = createConfig(ExecutionModel.BOUNDED);
+		Scheduler scheduler = config.blockingScheduler();
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			// One task runs, one waits in the queue, the third one has no room
+			Mono.fromRunnable(() -> {
+				running.countDown();
+				await(release);
+			}).subscribeOn(scheduler).subscribe();
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+			Mono.fromRunnable(() -> { }).subscribeOn(scheduler).subscribe();
+
+			assertThrows(RejectedExecutionException.class, () -> Mono.just(1).subscribeOn(scheduler).block());
+		} finally {
+			release.countDown();
+			config.destroy();
+		}
+	}
+
+	@Test
+	void rejectedExecutionIsServiceUnavailable() {
+		WebTestClient client = WebTestClient.bindToController(new RejectingController())
+				.controllerAdvice(new GlobalControllerExceptionHandler())
+				.build();
+
+		client.get().uri("/rejected").exchange()
+				.expectStatus().isEqualTo(SERVICE_UNAVAILABLE)
+				.expectBody()
+				.jsonPath("$.path").isEqualTo("/rejected")
+				.jsonPath("$.message").isEqualTo("Too many concurrent requests, try again later");
+	}
+
+	private static BlockingExecutionConfig createConfig(ExecutionModel model) {
+		return new BlockingExecutionConfig(new SimpleMeterRegistry(), model, 1, 1);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@RestController
+	static class BlockingController {
+		@GetMapping("/blocking")
+		public String get() {
+			return "blocking";
+		}
+	}
+
+	@RestController
+	static class ReactiveController {
+		@GetMapping("/reactive")
+		public Mono<String> get() {
+			return Mono.just("reactive");
+		}
+	}
+
+	@RestController
+	static class RejectingController {
+		@GetMapping("/rejected")
+		public String get() {
+			throw new RejectedExecutionException("Queue full");
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fpivetti.api.composite.product.ProductAggregateDto;
+import com.fpivetti.api.composite.product.RecommendationSummaryDto;
+import com.fpivetti.api.composite.product.ReviewSummaryDto;
+import com.fpivetti.api.composite.product.ServiceAddressesDto;
+import com.fpivetti.microservices.composite.product.cache.CacheValueSerializer;
+import com.fpivetti.microservices.composite.product.cache.Tombstone;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class CacheValueSerializerTests {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CacheValueSerializer smile = new CacheValueSerializer("products", ProductAggregateDto.class,
+			CacheValueSerializer.Format.SMILE, CacheValueSerializer.NO_COMPRESSION, meterRegistry);
+	private final CacheValueSerializer compressed = new CacheValueSerializer("products", ProductAggregateDto.class,
+			CacheValueSerializer.Format.SMILE, 1024, meterRegistry);
+	private final CacheValueSerializer json = new CacheValueSerializer("products", ProductAggregateDto.class,
+			CacheValueSerializer.Format.JSON, CacheValueSerializer.NO_COMPRESSION, meterRegistry);
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final CacheValueSerializer wire = new CacheValueSerializer("products",
+			TypeFactory.defaultInstance().constructType(ProductAggregateDto.class),
+			CacheValueSerializer.Format.WIRE, 1024, mapper, meterRegistry);
+	private final GenericJackson2JsonRedisSerializer legacy = new GenericJackson2JsonRedisSerializer();
+
+	@Test
+	void smileRoundTrip() {
+		ProductAggregateDto aggregate = createAggregate(3);
+		ProductAggregateDto result = (ProductAggregateDto) smile.deserialize(smile.serialize(aggregate));
+		assertAggregateEquals(aggregate, result);
+	}
+
+	@Test
+	void readLegacyJson() {
+		ProductAggregateDto aggregate = createAggregate(3);
+		ProductAggregateDto result = (ProductAggregateDto) smile.deserialize(legacy.serialize(aggregate));
+		assertAggregateEquals(aggregate, result);
+	}
+
+	@Test
+	void jsonFormatIsReadableByLegacyReaders() {
+		ProductAggregateDto aggregate = createAggregate(3);
+		ProductAggregateDto result = (ProductAggregateDto) legacy.deserialize(json.serialize(aggregate));
+		assertAggregateEquals(aggregate, result);
+	}
+
+	@Test
+	void smileIsSmallerThanJson() {
+		ProductAggregateDto aggregate = createAggregate(100);
+		assertTrue(smile.serialize(aggregate).length < json.serialize(aggregate).length / 2);
+	}
+
+	@Test
+	void compressAboveThreshold() {
+		ProductAggregateDto small = createAggregate(1);
+		ProductAggregateDto large = createAggregate(100);
+		assertArrayEquals(smile.serialize(small), compressed.serialize(small));
+
+		byte[] bytes = compressed.serialize(large);
+		assertTrue(bytes.length < smile.serialize(large).length);
+		assertAggregateEquals(large, (ProductAggregateDto) smile.deserialize(bytes));
+		assertEquals(1, meterRegistry.get("cache.codec.compression.ratio").summary().count());
+	}
+
+	@Test
+	void corruptUncompressedLengthIsRejected() {
+		byte[] bytes = compressed.serialize(createAggregate(100));
+		// The uncompressed length follows the 3 bytes header
+		ByteBuffer.wrap(bytes).putInt(3, Integer.MAX_VALUE);
+		assertThrows(SerializationException.class, () -> compressed.deserialize(bytes));
+		ByteBuffer.wrap(bytes).putInt(3, -1);
+		assertThrows(SerializationException.class, () -> compressed.deserialize(bytes));
+	}
+
+	@Test
+	void malformedCompressedBodyIsRejected() {
+		byte[] bytes = compressed.serialize(createAggregate(100));
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+		assertThrows(SerializationException.class, () -> compressed.deserialize(truncated));
+
+		// The LZ4 block follows the header and the uncompressed length
+		byte[] corrupted = bytes.clone();
+		Arrays.fill(corrupted, 7, corrupted.length, (byte) 0xFF);
+		assertThrows(SerializationException.class, () -> compressed.deserialize(corrupted));
+	}
+
+	@Test
+	void wireRoundTrip() {
+		ProductAggregateDto aggregate = createAggregate(100);
+		assertAggregateEquals(aggregate, (ProductAggregateDto) wire.deserialize(wire.serialize(aggregate)));
+		assertAggregateEquals(aggregate, (ProductAggregateDto) smile.deserialize(wire.serialize(aggregate)));
+	}
+
+	@Test
+	void wireJsonIsTheResponseBody() throws JsonProcessingException {
+		ProductAggregateDto small = createAggregate(1);
+		ProductAggregateDto large = createAggregate(100);
+		assertArrayEquals(mapper.writeValueAsBytes(small), bytes(wire.wireJson(ByteBuffer.wrap(wire.serialize(small)))));
+		assertArrayEquals(mapper.writeValueAsBytes(large), bytes(wire.wireJson(ByteBuffer.wrap(wire.serialize(large)))));
+
+		assertNull(wire.wireJson(ByteBuffer.wrap(smile.serialize(small))));
+		assertNull(wire.wireJson(ByteBuffer.wrap(json.serialize(small))));
+		assertNull(wire.wireJson(ByteBuffer.wrap(wire.serialize(new Tombstone("NOT FOUND: 1")))));
+	}
+
+	@Test
+	void tombstoneRoundTrip() {
+		Object result = smile.deserialize(json.serialize(new Tombstone("NOT FOUND: 1")));
+		assertInstanceOf(Tombstone.class, result);
+		assertEquals("NOT FOUND: 1", ((Tombstone) result).getMessage());
+	}
+
+	@Test
+	void jsonFormatWritesTombstonesAsLegacyJson() {
+		byte[] bytes = json.serialize(new Tombstone("NOT FOUND: 1"));
+		assertNotEquals((byte) 0xCA, bytes[0]);
+		Object result = legacy.deserialize(bytes);
+		assertInstanceOf(Tombstone.class, result);
+		assertEquals("NOT FOUND: 1", ((Tombstone) result).getMessage());
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private ProductAggregateDto createAggregate(int count) {
+		List<RecommendationSummaryDto> recommendations = new ArrayList<>();
+		List<ReviewSummaryDto> reviews = new ArrayList<>();
+		for (int i = 1; i <= count; i++) {
+			recommendations.add(new RecommendationSummaryDto(i, "author " + i, i % 5, "content " + i));
+			reviews.add(new ReviewSummaryDto(i, "author " + i, "subject " + i, "content " + i));
+		}
+		return new ProductAggregateDto(1, "name", 1, recommendations, reviews,
+				new ServiceAddressesDto("composite", "product", "recommendation", "review"));
+	}
+
+	private void assertAggregateEquals(ProductAggregateDto expected, ProductAggregateDto actual) {
+		assertEquals(expected.getProductId(), actual.getProductId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getWeight(), actual.getWeight());
+		assertEquals(expected.getRecommendations().size(), actual.getRecommendations().size());
+		assertEquals(expected.getRecommendations().getLast().getContent(), actual.getRecommendations().getLast().getContent());
+		assertEquals(expected.getReviews().size(), actual.getReviews().size());
+		assertEquals(expected.getReviews().getLast().getSubject(), actual.getReviews().getLast().getSubject());
+		assertEquals(expected.getServiceAddresses().getReviewAddress(), actual.getServiceAddresses().getReviewAddress());
+	}
+}
@@ -0,0 +1,112 @@
+package com.fpivetti.microservices.composite.product;
+
+import static com.fpivetti.microservices.composite.product.ProductCompositeTestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static reactor.core.publisher.Mono.just;
+
+import com.fpivetti.microservices.composite.product.services.CacheWarmer;
+import com.fpivetti.microservices.composite.product.services.HotKeyRecorder;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Its own context, with the spied HotKeyRecorder, so that the hot keys are only the ones requested here
+@SpringBootTest(webEnvironment = RANDOM_PORT)
+class CacheWarmerTests extends RedisCacheTestBase {
+	private static final int PRODUCT_ID_OK = 1;
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@SpyBean
+	private HotKeyRecorder hotKeys;
+
+	@Autowired
+	private CacheWarmer warmer;
+
+	@MockBean
+	private ProductCompositeIntegration compositeIntegration;
+
+	@BeforeEach
+	void setUp() {
+		stubProduct(compositeIntegration, PRODUCT_ID_OK);
+		stubProducts(compositeIntegration, List.of(PRODUCT_ID_OK));
+		flushRedis(redisTemplate);
+		client.get().uri("/product-composite/" + PRODUCT_ID_OK).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK);
+	}
+
+	@Test
+	void warmUpRebuildsTheMissingHotKeys() {
+		assertEquals(PRODUCT_ID_OK, hotKeys.hottest().get(0));
+		assertEquals(new CacheWarmer.WarmUpResult("DONE", 1, 0, 0), warmer.warmUp().block());
+
+		// Lost by Redis, but still in the near cache: the warm-up must not be satisfied by it
+		flushRedis(redisTemplate);
+		assertEquals(new CacheWarmer.WarmUpResult("DONE", 1, 1, 1), warmer.warmUp().block());
+		assertTrue(redisTemplate.hasKey("products::" + PRODUCT_ID_OK));
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void unsubscribedWarmUpDoesNotBlockTheNextOnes() {
+		warmer.warmUp();
+		assertEquals("DONE", Objects.requireNonNull(warmer.warmUp().block()).status());
+	}
+
+	@Test
+	void cancelledWarmUpRunsToTheEnd() throws InterruptedException {
+		List<Integer> batchIds = List.of(PRODUCT_ID_OK);
+		when(compositeIntegration.getProductsAsync(batchIds))
+				.thenReturn(just(Map.of(PRODUCT_ID_OK, product(PRODUCT_ID_OK)))
+						.delayElement(Duration.ofMillis(200)));
+		flushRedis(redisTemplate);
+
+		warmer.warmUp().subscribe().dispose();
+		for (int i = 0; i < 50 && !Boolean.TRUE.equals(redisTemplate.hasKey("products::" + PRODUCT_ID_OK)); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(redisTemplate.hasKey("products::" + PRODUCT_ID_OK));
+	}
+
+	@Test
+	void batchReadsAreRecordedAsHotKeys() {
+		clearInvocations(hotKeys);
+		client.get().uri("/product-composite?ids=" + PRODUCT_ID_OK).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK);
+		verify(hotKeys).record(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void warmUpThroughTheActuatorEndpoint() {
+		client.get().uri("/actuator/cachewarmup").accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectBody().jsonPath("$[0]").isEqualTo(PRODUCT_ID_OK);
+
+		flushRedis(redisTemplate);
+		client.post().uri("/actuator/cachewarmup").exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectBody()
+				.jsonPath("$.status").isEqualTo("DONE")
+				.jsonPath("$.rebuilt").isEqualTo(1);
+		assertTrue(redisTemplate.hasKey("products::" + PRODUCT_ID_OK));
+	}
+}
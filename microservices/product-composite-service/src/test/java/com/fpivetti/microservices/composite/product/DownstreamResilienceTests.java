@@ -0,0 +1,162 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fpivetti.api.core.product.ProductDto;
+import com.fpivetti.api.exceptions.NotFoundException;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+// Calls a stub of the product service, with the resilience4j limits of the product instances lowered
+@SpringBootTest(properties = {
+		"resilience4j.timelimiter.instances.product.timeout-duration=200ms",
+		"resilience4j.bulkhead.instances.product.max-concurrent-calls=1",
+		"resilience4j.circuitbreaker.instances.product.sliding-window-size=4",
+		"resilience4j.circuitbreaker.instances.product.minimum-number-of-calls=4"})
+class DownstreamResilienceTests extends RedisCacheTestBase {
+	private static final int PRODUCT_ID_OK = 1;
+	private static final int PRODUCT_ID_NOT_FOUND = 2;
+	private static final int PRODUCT_ID_FAILING = 3;
+	private static final int PRODUCT_ID_SLOW = 4;
+	private static final Duration VERIFY_TIMEOUT = Duration.ofSeconds(5);
+
+	private static final DisposableServer productService = HttpServer.create()
+			.host("localhost")
+			.port(0)
+			.route(routes -> routes.get("/product/{productId}", (request, response) ->
+					switch (Integer.parseInt(request.param("productId"))) {
+						case PRODUCT_ID_OK -> response.header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+								.sendString(Mono.just(productJson(PRODUCT_ID_OK)));
+						case PRODUCT_ID_SLOW -> response.header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+								.sendString(Mono.just(productJson(PRODUCT_ID_SLOW)).delayElement(Duration.ofSeconds(1)));
+						case PRODUCT_ID_NOT_FOUND -> response.status(404).header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+								.sendString(Mono.just("{\"message\":\"No product found for productId: " + PRODUCT_ID_NOT_FOUND + "\"}"));
+						default -> response.status(500).send();
+					}))
+			.bindNow();
+
+	@Autowired
+	private ProductCompositeIntegration integration;
+
+	@Autowired
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@DynamicPropertySource
+	static void productServiceProperties(DynamicPropertyRegistry registry) {
+		registry.add("app.product-service.host", productService::host);
+		registry.add("app.product-service.port", productService::port);
+	}
+
+	@AfterAll
+	static void stopProductService() {
+		productService.disposeNow();
+	}
+
+	@BeforeEach
+	void setUp() {
+		// The first call of the client is slower than the lowered timeout
+		integration.getProductAsync(PRODUCT_ID_OK).onErrorResume(ex -> Mono.empty()).block();
+		circuitBreakerRegistry.circuitBreaker("product").reset();
+	}
+
+	@Test
+	void slowCallTimesOut() {
+		double timeouts = rejections("timeout");
+
+		StepVerifier.create(integration.getProductAsync(PRODUCT_ID_SLOW))
+				.expectError(TimeoutException.class)
+				.verify(VERIFY_TIMEOUT);
+		assertEquals(timeouts + 1, rejections("timeout"));
+	}
+
+	@Test
+	void callIsRejectedWhenTheBulkheadIsFull() {
+		double rejected = rejections("bulkhead-full");
+
+		// The slow call holds the only permit until it times out
+		StepVerifier.create(integration.getProductAsync(PRODUCT_ID_SLOW))
+				.then(() -> StepVerifier.create(integration.getProductAsync(PRODUCT_ID_OK))
+						.expectError(BulkheadFullException.class)
+						.verify(VERIFY_TIMEOUT))
+				.expectError(TimeoutException.class)
+				.verify(VERIFY_TIMEOUT);
+		assertEquals(rejected + 1, rejections("bulkhead-full"));
+
+		StepVerifier.create(integration.getProductAsync(PRODUCT_ID_OK))
+				.expectNextMatches(product -> product.getProductId() == PRODUCT_ID_OK)
+				.verifyComplete();
+	}
+
+	@Test
+	void clientErrorsDoNotOpenTheCircuit() {
+		for (int i = 0; i < 6; i++) {
+			StepVerifier.create(integration.getProductAsync(PRODUCT_ID_NOT_FOUND))
+					.expectError(NotFoundException.class)
+					.verify(VERIFY_TIMEOUT);
+		}
+
+		CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker("product");
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertEquals(0, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+	}
+
+	@Test
+	void serverErrorsOpenTheCircuit() {
+		double rejected = rejections("circuit-open");
+
+		for (int i = 0; i < 4; i++) {
+			StepVerifier.create(integration.getProductAsync(PRODUCT_ID_FAILING))
+					.expectError(WebClientResponseException.InternalServerError.class)
+					.verify(VERIFY_TIMEOUT);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreakerRegistry.circuitBreaker("product").getState());
+
+		// An open circuit fails fast, without calling the product service
+		StepVerifier.create(integration.getProductAsync(PRODUCT_ID_OK))
+				.expectError(CallNotPermittedException.class)
+				.verify(VERIFY_TIMEOUT);
+		assertEquals(rejected + 1, rejections("circuit-open"));
+	}
+
+	private double rejections(String reason) {
+		Counter counter = meterRegistry.find("composite.downstream.rejections")
+				.tags("downstream", "product", "reason", reason)
+				.counter();
+		return (counter != null) ? counter.count() : 0;
+	}
+
+	private static String productJson(int productId) {
+		try {
+			return new ObjectMapper().writeValueAsString(new ProductDto(productId, "name", 1, "mock-address"));
+		} catch (JsonProcessingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.fpivetti.microservices.composite.product;
+
+import static com.fpivetti.microservices.composite.product.ProductCompositeTestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static reactor.core.publisher.Mono.just;
+
+import com.fpivetti.api.composite.product.ProductAggregateDto;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache;
+import com.fpivetti.microservices.composite.product.cache.FragmentCache.Fragment;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = "app.cache.mode=fragments")
+class FragmentCacheModeTests extends RedisCacheTestBase {
+	private static final int PRODUCT_ID_OK = 1;
+	private static final int PRODUCT_ID_NOT_FOUND = 2;
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private FragmentCache fragmentCache;
+
+	@MockBean
+	private ProductCompositeIntegration compositeIntegration;
+
+	@BeforeEach
+	void setUp() {
+		stubProducts(compositeIntegration, List.of(PRODUCT_ID_OK));
+		stubProductsNotFound(compositeIntegration, List.of(PRODUCT_ID_NOT_FOUND));
+		flushRedis(redisTemplate);
+	}
+
+	@Test
+	void getProductFromFragments() {
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+				.jsonPath("$.recommendations.length()").isEqualTo(1)
+				.jsonPath("$.reviews.length()").isEqualTo(1);
+		Long ttl = redisTemplate.getExpire("product-reviews::" + PRODUCT_ID_OK);
+		assertNotNull(ttl);
+		assertTrue(ttl > 0 && ttl <= 600);
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_OK));
+		verify(compositeIntegration, times(1)).getReviewsAsync(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void onlyTheMissingFragmentIsLoaded() {
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		redisTemplate.delete("product-reviews::" + PRODUCT_ID_OK);
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.reviews.length()").isEqualTo(1);
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_OK));
+		verify(compositeIntegration, times(1)).getRecommendationsAsync(List.of(PRODUCT_ID_OK));
+		verify(compositeIntegration, times(2)).getReviewsAsync(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void getProductNotFoundFromFragments() {
+		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND)
+				.jsonPath("$.message").isEqualTo("No product found for productId: " + PRODUCT_ID_NOT_FOUND);
+		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND);
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_NOT_FOUND));
+	}
+
+	@Test
+	void createProductWritesOnlyTheTouchedFragments() {
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		client.post()
+				.uri("/product-composite")
+				.body(just(new ProductAggregateDto(PRODUCT_ID_OK, "created", 1, null, null, null)), ProductAggregateDto.class)
+				.exchange()
+				.expectStatus().isEqualTo(OK);
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.name").isEqualTo("created")
+				.jsonPath("$.recommendations.length()").isEqualTo(1)
+				.jsonPath("$.reviews.length()").isEqualTo(1);
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_OK));
+		verify(compositeIntegration, times(1)).getReviewsAsync(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void fragmentsEvictedDuringTheirLoadAreNotCached() {
+		// The product is deleted while its fragments are being loaded
+		when(compositeIntegration.getProductsAsync(List.of(PRODUCT_ID_OK))).thenReturn(Mono.fromCallable(() -> {
+			fragmentCache.evict(PRODUCT_ID_OK, EnumSet.allOf(Fragment.class));
+			return Map.of(PRODUCT_ID_OK, product(PRODUCT_ID_OK));
+		}));
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		assertEquals(Boolean.FALSE, redisTemplate.hasKey("product-info::" + PRODUCT_ID_OK));
+		assertEquals(Boolean.FALSE, redisTemplate.hasKey("product-reviews::" + PRODUCT_ID_OK));
+	}
+
+	private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
+		return client.get()
+				.uri("/product-composite/" + productId)
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isEqualTo(expectedStatus)
+				.expectHeader().contentType(APPLICATION_JSON)
+				.expectBody();
+	}
+}
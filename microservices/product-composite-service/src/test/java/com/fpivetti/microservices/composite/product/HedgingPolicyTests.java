@@ -0,0 +1,73 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fpivetti.microservices.composite.product.services.HedgingPolicy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class HedgingPolicyTests {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void disabledPolicySendsOneAttempt() {
+		HedgingPolicy policy = createPolicy(false, 1);
+		AtomicInteger attempts = new AtomicInteger();
+		assertEquals("first", policy.hedge("product", () -> attempt(attempts, "first", Duration.ofMillis(100))).block());
+		assertEquals(1, attempts.get());
+	}
+
+	@Test
+	void slowAttemptIsHedged() {
+		HedgingPolicy policy = createPolicy(true, 1);
+		// 10 warm up reads earn one token at a 10% budget
+		warmUp(policy, 10);
+
+		AtomicInteger attempts = new AtomicInteger();
+		String result = policy.hedge("product", () -> attempts.getAndIncrement() == 0
+				? Mono.just("slow").delayElement(Duration.ofSeconds(2))
+				: Mono.just("hedge")).block(Duration.ofSeconds(1));
+		assertEquals("hedge", result);
+		assertEquals(1, count("fired"));
+		assertEquals(1, count("won"));
+	}
+
+	@Test
+	void hedgesAreCappedByTheBudget() {
+		HedgingPolicy policy = createPolicy(true, 1);
+		warmUp(policy, 5);
+
+		AtomicInteger attempts = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			assertEquals("slow", policy.hedge("product", () -> attempt(attempts, "slow", Duration.ofMillis(200))).block());
+		}
+		// 5 warm up reads and 3 slow reads earn 0.8 tokens at a 10% budget
+		assertEquals(3, attempts.get());
+		assertEquals(0, count("fired"));
+		assertEquals(3, count("budget-exhausted"));
+	}
+
+	private HedgingPolicy createPolicy(boolean enabled, long minSamples) {
+		return new HedgingPolicy(meterRegistry, enabled, 0.95, Duration.ofMillis(10), minSamples, 0.1, 10);
+	}
+
+	private void warmUp(HedgingPolicy policy, int reads) {
+		for (int i = 0; i < reads; i++) {
+			policy.hedge("product", () -> Mono.just("fast").delayElement(Duration.ofMillis(5))).block();
+		}
+	}
+
+	private Mono<String> attempt(AtomicInteger attempts, String value, Duration delay) {
+		attempts.incrementAndGet();
+		return Mono.just(value).delayElement(delay);
+	}
+
+	private double count(String result) {
+		var counter = meterRegistry.find("composite.hedges").tags("downstream", "product", "result", result).counter();
+		return counter == null ? 0 : counter.count();
+	}
+}
@@ -0,0 +1,66 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+import com.fpivetti.microservices.composite.product.cache.FillLeaseLayer;
+import com.fpivetti.microservices.composite.product.cache.NearCacheCheckpointer;
+import com.fpivetti.microservices.composite.product.cache.NearCacheLayer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class NearCacheTests {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final NearCacheCheckpointer checkpointer = new NearCacheCheckpointer(mock(StringRedisTemplate.class),
+			mock(FillLeaseLayer.class), meterRegistry, false, Path.of("checkpoint"), Duration.ofMinutes(1), 10, Duration.ofMinutes(1));
+	private final NearCacheLayer layer = new NearCacheLayer(mock(StringRedisTemplate.class), meterRegistry, checkpointer,
+			true, 100, 1 << 20, Duration.ofMinutes(1), "cache-invalidation", NearCacheLayer.Store.HEAP, 0, 0);
+	private final CountDownLatch evicting = new CountDownLatch(1);
+	private final CountDownLatch evicted = new CountDownLatch(1);
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		checkpointer.destroy();
+	}
+
+	@Test
+	void readRacingAnEvictionDoesNotKeepTheEvictedValue() throws InterruptedException {
+		Cache redis = new ConcurrentMapCache("products") {
+			@Override
+			public void evict(Object key) {
+				evicting.countDown();
+				await(evicted);
+				super.evict(key);
+			}
+		};
+		redis.put(1, "old");
+		Cache nearCache = layer.decorate(redis);
+
+		Thread writer = new Thread(() -> nearCache.evict(1));
+		writer.start();
+		assertTrue(evicting.await(5, TimeUnit.SECONDS));
+		// Read after the eviction started but before the delete reached Redis: the old value goes to L1
+		assertEquals("old", nearCache.get(1).get());
+		evicted.countDown();
+		writer.join();
+
+		assertNull(nearCache.get(1));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fpivetti.microservices.composite.product.cache.OffHeapSlabStore;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+class OffHeapSlabStoreTests {
+	// 16 bytes of header and 16 bytes of value: two entries per slab
+	private static final int SLAB_SIZE = 64;
+	private static final String VALUE = "value-0123456789";
+
+	@Test
+	void putGetAndInvalidate() {
+		OffHeapSlabStore store = createStore(3 * SLAB_SIZE, Duration.ofMinutes(1));
+		store.put("1", VALUE);
+		store.put("2", VALUE.replace('0', '2'));
+		store.put("key", VALUE);
+
+		assertEquals(VALUE, store.getIfPresent("1"));
+		assertEquals(VALUE.replace('0', '2'), store.getIfPresent("2"));
+		assertNull(store.getIfPresent("key"));
+		assertEquals(2, store.size());
+
+		store.invalidate("1");
+		assertNull(store.getIfPresent("1"));
+		store.invalidateAll();
+		assertNull(store.getIfPresent("2"));
+		assertEquals(0, store.size());
+		assertEquals(0, store.usedBytes());
+	}
+
+	@Test
+	void overwriteKeepsTheLastValue() {
+		OffHeapSlabStore store = createStore(3 * SLAB_SIZE, Duration.ofMinutes(1));
+		store.put("1", VALUE);
+		store.put("1", VALUE.replace('0', '1'));
+
+		assertEquals(VALUE.replace('0', '1'), store.getIfPresent("1"));
+		assertEquals(1, store.size());
+		assertEquals(SLAB_SIZE / 2, store.usedBytes());
+
+		// Too large for a slab, the previous value is dropped
+		store.put("1", VALUE.repeat(4));
+		assertNull(store.getIfPresent("1"));
+	}
+
+	@Test
+	void evictsTheSlabsNotReadFirst() {
+		OffHeapSlabStore store = createStore(3 * SLAB_SIZE, Duration.ofMinutes(1));
+		for (int i = 1; i <= 6; i++) {
+			store.put(String.valueOf(i), VALUE);
+		}
+		// Keeps the first slab, so the second one is emptied to make room
+		assertNotNull(store.getIfPresent("1"));
+		store.put("7", VALUE);
+
+		assertNull(store.getIfPresent("3"));
+		assertNull(store.getIfPresent("4"));
+		assertNotNull(store.getIfPresent("2"));
+		assertNotNull(store.getIfPresent("5"));
+		assertNotNull(store.getIfPresent("7"));
+		assertEquals(2, store.evictionCount());
+	}
+
+	@Test
+	void expiresAfterWrite() throws InterruptedException {
+		OffHeapSlabStore store = createStore(SLAB_SIZE, Duration.ofMillis(50));
+		store.put("1", VALUE);
+		assertNotNull(store.getIfPresent("1"));
+
+		Thread.sleep(100);
+		assertNull(store.getIfPresent("1"));
+		assertEquals(0, store.size());
+	}
+
+	private OffHeapSlabStore createStore(long capacity, Duration expireAfterWrite) {
+		return new OffHeapSlabStore(capacity, SLAB_SIZE, expireAfterWrite,
+				value -> ((String) value).getBytes(StandardCharsets.UTF_8),
+				bytes -> new String(bytes, StandardCharsets.UTF_8));
+	}
+}
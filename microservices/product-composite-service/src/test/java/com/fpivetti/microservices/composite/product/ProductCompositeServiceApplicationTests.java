@@ -1,6 +1,12 @@
 package com.fpivetti.microservices.composite.product;
 
+import static com.fpivetti.microservices.composite.product.ProductCompositeTestFixtures.*;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
@@ -12,9 +18,9 @@ import com.fpivetti.api.composite.product.RecommendationSummaryDto;
 import com.fpivetti.api.composite.product.ReviewSummaryDto;
 import com.fpivetti.api.core.product.ProductDto;
 import com.fpivetti.api.core.recommendation.RecommendationDto;
-import com.fpivetti.api.core.review.ReviewDto;
 import com.fpivetti.api.exceptions.InvalidInputException;
-import com.fpivetti.api.exceptions.NotFoundException;
+import com.fpivetti.microservices.composite.product.cache.DelegatingCache;
+import com.fpivetti.microservices.composite.product.services.ProductAggregateLoader;
 import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,16 +28,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
-@SpringBootTest(webEnvironment = RANDOM_PORT)
+// Smile, the format of the rolled out replicas, with which the not found products are cached as tombstones
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = "app.cache.codec.format=smile")
 class ProductCompositeServiceApplicationTests extends RedisCacheTestBase {
 	private static final int PRODUCT_ID_OK = 1;
 	private static final int PRODUCT_ID_NOT_FOUND = 2;
 	private static final int PRODUCT_ID_INVALID = -1;
+	private static final int PRODUCT_ID_DEGRADED = 3;
+	private static final int PRODUCT_ID_SLOW = 4;
 
 	@Autowired
 	private WebTestClient client;
@@ -39,23 +54,42 @@ class ProductCompositeServiceApplicationTests extends RedisCacheTestBase {
 	@Autowired
 	private CacheManager cacheManager;
 
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private ProductAggregateLoader aggregateLoader;
+
 	@MockBean
 	private ProductCompositeIntegration compositeIntegration;
 
 	@BeforeEach
 	void setUp() {
-		when(compositeIntegration.getProduct(PRODUCT_ID_OK))
-				.thenReturn(new ProductDto(PRODUCT_ID_OK, "name", 1, "mock-address"));
-		when(compositeIntegration.getRecommendations(PRODUCT_ID_OK))
-				.thenReturn(singletonList(new RecommendationDto(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
-		when(compositeIntegration.getReviews(PRODUCT_ID_OK))
-				.thenReturn(singletonList(new ReviewDto(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+		stubProduct(compositeIntegration, PRODUCT_ID_OK);
+		stubProductNotFound(compositeIntegration, PRODUCT_ID_NOT_FOUND);
 
-		when(compositeIntegration.getProduct(PRODUCT_ID_NOT_FOUND))
-				.thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
+		when(compositeIntegration.getProductAsync(PRODUCT_ID_DEGRADED))
+				.thenReturn(just(new ProductDto(PRODUCT_ID_DEGRADED, "name", 1, "mock-address")));
+		when(compositeIntegration.getRecommendationsAsync(PRODUCT_ID_DEGRADED))
+				.thenReturn(just(singletonList(new RecommendationDto(PRODUCT_ID_DEGRADED, 1, "author", 1, "content", "mock address"))));
+		when(compositeIntegration.getReviewsAsync(PRODUCT_ID_DEGRADED)).thenReturn(Mono.empty());
 
-		when(compositeIntegration.getProduct(PRODUCT_ID_INVALID))
-				.thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
+		when(compositeIntegration.getProductAsync(PRODUCT_ID_SLOW))
+				.thenReturn(just(new ProductDto(PRODUCT_ID_SLOW, "name", 1, "mock-address")).delayElement(Duration.ofMillis(200)));
+		when(compositeIntegration.getRecommendationsAsync(PRODUCT_ID_SLOW)).thenReturn(just(emptyList()));
+		when(compositeIntegration.getReviewsAsync(PRODUCT_ID_SLOW)).thenReturn(just(emptyList()));
+
+		when(compositeIntegration.getProductAsync(PRODUCT_ID_INVALID))
+				.thenReturn(Mono.error(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID)));
+		when(compositeIntegration.getRecommendationsAsync(PRODUCT_ID_INVALID)).thenReturn(just(emptyList()));
+		when(compositeIntegration.getReviewsAsync(PRODUCT_ID_INVALID)).thenReturn(just(emptyList()));
+
+		List<Integer> batchMisses = List.of(PRODUCT_ID_NOT_FOUND, PRODUCT_ID_DEGRADED);
+		when(compositeIntegration.getProductsAsync(batchMisses))
+				.thenReturn(just(Map.of(PRODUCT_ID_DEGRADED, new ProductDto(PRODUCT_ID_DEGRADED, "name", 1, "mock-address"))));
+		when(compositeIntegration.getRecommendationsAsync(batchMisses))
+				.thenReturn(just(Map.of(PRODUCT_ID_NOT_FOUND, emptyList(), PRODUCT_ID_DEGRADED, emptyList())));
+		when(compositeIntegration.getReviewsAsync(batchMisses)).thenReturn(Mono.empty());
 
 		// Before each test we clean the cache removing all saved entities
 		cacheManager.getCacheNames().forEach(cacheName -> Objects.requireNonNull(cacheManager.getCache(cacheName)).clear());
@@ -111,7 +145,7 @@ class ProductCompositeServiceApplicationTests extends RedisCacheTestBase {
 		getAndVerifyProduct(PRODUCT_ID_OK, OK);
 		// Verify that the second time we call the GET operation, it will retrieve the result from the cache
 		getAndVerifyProduct(PRODUCT_ID_OK, OK);
-		verify(compositeIntegration, times(1)).getProduct(PRODUCT_ID_OK);
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_OK);
 	}
 
 	@Test
@@ -120,7 +154,150 @@ class ProductCompositeServiceApplicationTests extends RedisCacheTestBase {
 		deleteAndVerifyProduct(PRODUCT_ID_OK, OK);
 		// Verify that if we call the GET operation, it will invoke the getProduct method since no entries are found in the cache
 		getAndVerifyProduct(PRODUCT_ID_OK, OK);
-		verify(compositeIntegration, times(2)).getProduct(PRODUCT_ID_OK);
+		verify(compositeIntegration, times(2)).getProductAsync(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void getProductNotFoundFromCache() {
+		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND);
+		// The second time the product is known to be missing, the cached tombstone answers with the same error
+		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND)
+				.jsonPath("$.message").isEqualTo("NOT FOUND: " + PRODUCT_ID_NOT_FOUND);
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_NOT_FOUND);
+
+		// Creating the product replaces the tombstone with the new aggregate
+		postAndVerifyProduct(new ProductAggregateDto(PRODUCT_ID_NOT_FOUND, "name", 1, null, null, null), OK);
+		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, OK)
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_NOT_FOUND);
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_NOT_FOUND);
+	}
+
+	@Test
+	void createCompositeProductWritesThrough() {
+		ProductAggregateDto compositeProduct = new ProductAggregateDto(PRODUCT_ID_OK, "created", 1,
+				singletonList(new RecommendationSummaryDto(1, "a", 1, "c")),
+				singletonList(new ReviewSummaryDto(1, "a", "s", "c")), null);
+		postAndVerifyProduct(compositeProduct, OK);
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.name").isEqualTo("created")
+				.jsonPath("$.recommendations.length()").isEqualTo(1)
+				.jsonPath("$.reviews.length()").isEqualTo(1)
+				.jsonPath("$.degraded").isEqualTo(false);
+		verify(compositeIntegration, never()).getProductAsync(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void staleFillRejectedAfterDelete() {
+		DelegatingCache productsCache = (DelegatingCache) Objects.requireNonNull(cacheManager.getCache("products"));
+		ProductAggregateDto stale = new ProductAggregateDto(PRODUCT_ID_OK, "stale", 1, null, null, null);
+		// A miss starts loading the aggregate, then the product is deleted before the load completes
+		Object token = productsCache.fillToken(PRODUCT_ID_OK);
+		deleteAndVerifyProduct(PRODUCT_ID_OK, OK);
+		assertFalse(productsCache.putIfValid(PRODUCT_ID_OK, stale, token));
+		assertFalse(redisTemplate.hasKey("products::" + PRODUCT_ID_OK));
+
+		// The next miss gets a new token, and its fill is stored
+		assertTrue(productsCache.putIfValid(PRODUCT_ID_OK, stale, productsCache.fillToken(PRODUCT_ID_OK)));
+		assertTrue(redisTemplate.hasKey("products::" + PRODUCT_ID_OK));
+	}
+
+	@Test
+	void staleFillRejectedAfterTheVersionExpired() {
+		DelegatingCache productsCache = (DelegatingCache) Objects.requireNonNull(cacheManager.getCache("products"));
+		ProductAggregateDto stale = new ProductAggregateDto(PRODUCT_ID_OK, "stale", 1, null, null, null);
+		// Written long ago, then deleted: the version counter of the key starts again
+		redisTemplate.delete("fill:products::" + PRODUCT_ID_OK);
+		deleteAndVerifyProduct(PRODUCT_ID_OK, OK);
+		Object token = productsCache.fillToken(PRODUCT_ID_OK);
+		// The version counter expires during the load, then the product is deleted again
+		redisTemplate.delete("fill:products::" + PRODUCT_ID_OK);
+		deleteAndVerifyProduct(PRODUCT_ID_OK, OK);
+		assertFalse(productsCache.putIfValid(PRODUCT_ID_OK, stale, token));
+		assertFalse(redisTemplate.hasKey("products::" + PRODUCT_ID_OK));
+	}
+
+	@Test
+	void getProductAsyncLoadsConcurrentMissesOnce() {
+		List<ProductAggregateDto> aggregates = Flux.range(0, 10)
+				.flatMap(i -> aggregateLoader.getProductAsync(PRODUCT_ID_SLOW))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+		assertNotNull(aggregates);
+		assertEquals(10, aggregates.size());
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_SLOW);
+		assertTrue(redisTemplate.hasKey("products::" + PRODUCT_ID_SLOW));
+	}
+
+	@Test
+	void getProductByIdFromNearCache() {
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		// Removing the entry from Redis only, the next GET operation is still served by the in-process near cache
+		redisTemplate.delete("products::" + PRODUCT_ID_OK);
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void getProductByIdRefreshedAhead() {
+		Objects.requireNonNull(cacheManager.getCache("products"))
+				.put(PRODUCT_ID_OK, new ProductAggregateDto(PRODUCT_ID_OK, "name", 1, null, null, null));
+		// The entry is about to expire: it is served as it is and rebuilt in the background
+		redisTemplate.expire("products::" + PRODUCT_ID_OK, Duration.ofMinutes(1));
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+		verify(compositeIntegration, timeout(5000).times(1)).getProductAsync(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void getDegradedProductCachedBriefly() {
+		getAndVerifyProduct(PRODUCT_ID_DEGRADED, OK)
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_DEGRADED)
+				.jsonPath("$.recommendations.length()").isEqualTo(1)
+				.jsonPath("$.reviews").doesNotExist()
+				.jsonPath("$.degraded").isEqualTo(true);
+		Long ttl = redisTemplate.getExpire("products::" + PRODUCT_ID_DEGRADED);
+		assertNotNull(ttl);
+		assertTrue(ttl > 0 && ttl <= 30);
+	}
+
+	@Test
+	void getProductsByIds() {
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		// Only the products missing from the cache are loaded, with one batch call per core service
+		getAndVerifyProducts(PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND + "," + PRODUCT_ID_DEGRADED, OK)
+				.jsonPath("$.length()").isEqualTo(2)
+				.jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_OK)
+				.jsonPath("$[1].productId").isEqualTo(PRODUCT_ID_DEGRADED)
+				.jsonPath("$[1].degraded").isEqualTo(true);
+		getAndVerifyProducts(PRODUCT_ID_DEGRADED + "," + PRODUCT_ID_NOT_FOUND + "," + PRODUCT_ID_OK, OK)
+				.jsonPath("$.length()").isEqualTo(2)
+				.jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_DEGRADED);
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_NOT_FOUND, PRODUCT_ID_DEGRADED));
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_OK);
+		Long ttl = redisTemplate.getExpire("products::" + PRODUCT_ID_DEGRADED);
+		assertNotNull(ttl);
+		assertTrue(ttl > 0 && ttl <= 30);
+
+		// The batch results are cached for the single product lookups too
+		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND);
+		verify(compositeIntegration, never()).getProductAsync(PRODUCT_ID_NOT_FOUND);
+	}
+
+	@Test
+	void getProductsInvalidInput() {
+		getAndVerifyProducts(PRODUCT_ID_OK + "," + PRODUCT_ID_INVALID, UNPROCESSABLE_ENTITY)
+				.jsonPath("$.message").isEqualTo("Invalid productId: " + PRODUCT_ID_INVALID);
+	}
+
+	private WebTestClient.BodyContentSpec getAndVerifyProducts(String productIds, HttpStatus expectedStatus) {
+		return client.get()
+				.uri("/product-composite?ids=" + productIds)
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isEqualTo(expectedStatus)
+				.expectHeader().contentType(APPLICATION_JSON)
+				.expectBody();
 	}
 
 	private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
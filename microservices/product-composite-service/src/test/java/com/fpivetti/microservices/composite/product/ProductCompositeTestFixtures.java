@@ -0,0 +1,84 @@
+package com.fpivetti.microservices.composite.product;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.mockito.Mockito.when;
+import static reactor.core.publisher.Mono.just;
+
+import com.fpivetti.api.core.product.ProductDto;
+import com.fpivetti.api.core.recommendation.RecommendationDto;
+import com.fpivetti.api.core.review.ReviewDto;
+import com.fpivetti.api.exceptions.NotFoundException;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Stubs of the core services and cleanup of Redis, shared by the tests of the application.
+ */
+final class ProductCompositeTestFixtures {
+
+	private ProductCompositeTestFixtures() {
+	}
+
+	/**
+	 * Stubs a product with one recommendation and one review.
+	 */
+	static void stubProduct(ProductCompositeIntegration integration, int productId) {
+		when(integration.getProductAsync(productId)).thenReturn(just(product(productId)));
+		when(integration.getRecommendationsAsync(productId)).thenReturn(just(singletonList(recommendation(productId))));
+		when(integration.getReviewsAsync(productId)).thenReturn(just(singletonList(review(productId))));
+	}
+
+	static void stubProductNotFound(ProductCompositeIntegration integration, int productId) {
+		when(integration.getProductAsync(productId)).thenReturn(Mono.error(new NotFoundException("NOT FOUND: " + productId)));
+		when(integration.getRecommendationsAsync(productId)).thenReturn(just(emptyList()));
+		when(integration.getReviewsAsync(productId)).thenReturn(just(emptyList()));
+	}
+
+	/**
+	 * Stubs the batch reads of the products, each with one recommendation and one review.
+	 */
+	static void stubProducts(ProductCompositeIntegration integration, List<Integer> productIds) {
+		when(integration.getProductsAsync(productIds)).thenReturn(just(byProductId(productIds, ProductCompositeTestFixtures::product)));
+		when(integration.getRecommendationsAsync(productIds))
+				.thenReturn(just(byProductId(productIds, productId -> singletonList(recommendation(productId)))));
+		when(integration.getReviewsAsync(productIds))
+				.thenReturn(just(byProductId(productIds, productId -> singletonList(review(productId)))));
+	}
+
+	/**
+	 * Stubs the batch reads of products that the core services do not find.
+	 */
+	static void stubProductsNotFound(ProductCompositeIntegration integration, List<Integer> productIds) {
+		when(integration.getProductsAsync(productIds)).thenReturn(just(Map.of()));
+		when(integration.getRecommendationsAsync(productIds)).thenReturn(just(Map.of()));
+		when(integration.getReviewsAsync(productIds)).thenReturn(just(Map.of()));
+	}
+
+	static void flushRedis(StringRedisTemplate redisTemplate) {
+		Objects.requireNonNull(redisTemplate.getConnectionFactory()).getConnection().serverCommands().flushDb();
+	}
+
+	static ProductDto product(int productId) {
+		return new ProductDto(productId, "name", 1, "mock-address");
+	}
+
+	private static RecommendationDto recommendation(int productId) {
+		return new RecommendationDto(productId, 1, "author", 1, "content", "mock address");
+	}
+
+	private static ReviewDto review(int productId) {
+		return new ReviewDto(productId, 1, "author", "subject", "content", "mock address");
+	}
+
+	private static <T> Map<Integer, T> byProductId(List<Integer> productIds, Function<Integer, T> value) {
+		return productIds.stream().collect(Collectors.toMap(Function.identity(), value));
+	}
+}
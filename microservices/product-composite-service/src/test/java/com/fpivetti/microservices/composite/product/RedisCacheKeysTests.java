@@ -0,0 +1,35 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+import com.fpivetti.microservices.composite.product.cache.RedisCacheKeys;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.nio.charset.StandardCharsets;
+
+class RedisCacheKeysTests {
+
+	@Test
+	void keysFollowTheCacheConfiguration() {
+		RedisCacheManager cacheManager = RedisCacheManager.builder(mock(RedisCacheWriter.class))
+				.withCacheConfiguration("products", RedisCacheConfiguration.defaultCacheConfig())
+				.withCacheConfiguration("prefixed", RedisCacheConfiguration.defaultCacheConfig().prefixCacheNameWith("v2:"))
+				.withCacheConfiguration("unprefixed", RedisCacheConfiguration.defaultCacheConfig().disableKeyPrefix())
+				.build();
+		cacheManager.afterPropertiesSet();
+		RedisCacheKeys redisKeys = new RedisCacheKeys(cacheManager);
+
+		assertEquals("products::1", string(redisKeys.redisKey("products", 1)));
+		assertEquals("v2:prefixed::1", string(redisKeys.redisKey("prefixed", 1)));
+		assertEquals("1", string(redisKeys.redisKey("unprefixed", 1)));
+		assertThrows(IllegalArgumentException.class, () -> redisKeys.redisKey("unknown", 1));
+	}
+
+	private static String string(byte[] bytes) {
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
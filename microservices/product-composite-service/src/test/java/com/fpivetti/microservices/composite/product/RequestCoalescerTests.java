@@ -0,0 +1,89 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fpivetti.microservices.composite.product.services.RequestCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+class RequestCoalescerTests {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+	@Test
+	void keysWithinTheWindowAreSentTogether() {
+		RequestCoalescer<Integer, Map<Integer, String>> coalescer = createCoalescer(Duration.ofMillis(50), 10, this::load);
+		List<String> results = Mono.zip(
+						coalescer.load(1).map(values -> values.get(1)),
+						coalescer.load(2).map(values -> values.get(2)),
+						coalescer.load(1).map(values -> values.get(1)))
+				.map(tuple -> List.of(tuple.getT1(), tuple.getT2(), tuple.getT3()))
+				.block();
+		assertEquals(List.of("value 1", "value 2", "value 1"), results);
+		assertEquals(List.of(List.of(1, 2)), batches);
+	}
+
+	@Test
+	void fullBatchIsSentWithoutWaiting() {
+		RequestCoalescer<Integer, Map<Integer, String>> coalescer = createCoalescer(Duration.ofMinutes(1), 2, this::load);
+		Mono.zip(coalescer.load(1), coalescer.load(2)).block(Duration.ofSeconds(1));
+		assertEquals(List.of(List.of(1, 2)), batches);
+		assertEquals(1, meterRegistry.get("composite.coalesced.batch.size").summary().count());
+	}
+
+	@Test
+	void batchErrorIsReceivedByAllCallers() {
+		RequestCoalescer<Integer, Map<Integer, String>> coalescer = createCoalescer(Duration.ofMillis(10), 10,
+				keys -> Mono.error(new IllegalStateException("down")));
+		Mono<Map<Integer, String>> first = coalescer.load(1);
+		Mono<Map<Integer, String>> second = coalescer.load(2);
+		assertThrows(IllegalStateException.class, () -> Mono.zip(first, second).block());
+		assertThrows(IllegalStateException.class, () -> first.block());
+	}
+
+	@Test
+	void invalidKeyDoesNotFailTheBatchOfTheOthers() {
+		RequestCoalescer<Integer, Map<Integer, String>> coalescer = createCoalescer(Duration.ofMillis(50), 10, this::load);
+		Mono<String> invalid = coalescer.load(-1).map(values -> values.get(-1)).onErrorReturn("rejected");
+		List<String> results = Mono.zip(
+						coalescer.load(1).map(values -> values.get(1)),
+						invalid,
+						coalescer.load(2).map(values -> values.get(2)))
+				.map(tuple -> List.of(tuple.getT1(), tuple.getT2(), tuple.getT3()))
+				.block();
+		assertEquals(List.of("value 1", "rejected", "value 2"), results);
+		assertEquals(List.of(List.of(-1), List.of(1, 2)), batches);
+	}
+
+	@Test
+	void cancelledKeyIsLeftOutOfTheBatch() {
+		RequestCoalescer<Integer, Map<Integer, String>> coalescer = createCoalescer(Duration.ofMillis(50), 10, this::load);
+		coalescer.load(1).subscribe().dispose();
+		Mono<Map<Integer, String>> second = coalescer.load(2);
+		Mono<Map<Integer, String>> third = coalescer.load(3);
+		coalescer.load(3).subscribe().dispose();
+		Mono.zip(second, third).block();
+		assertEquals(List.of(List.of(2, 3)), batches);
+	}
+
+	private RequestCoalescer<Integer, Map<Integer, String>> createCoalescer(Duration window, int maxBatchSize,
+			Function<List<Integer>, Mono<Map<Integer, String>>> batchLoader) {
+		return new RequestCoalescer<>("review", batchLoader, key -> key >= 1, window, maxBatchSize, meterRegistry);
+	}
+
+	private Mono<Map<Integer, String>> load(List<Integer> keys) {
+		batches.add(keys);
+		if (keys.stream().anyMatch(key -> key < 1)) {
+			return Mono.error(new IllegalArgumentException("Invalid productIds: " + keys));
+		}
+		return Mono.just(keys.stream().collect(Collectors.toMap(key -> key, key -> "value " + key)));
+	}
+}
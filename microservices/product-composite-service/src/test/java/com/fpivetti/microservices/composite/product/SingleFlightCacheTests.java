@@ -0,0 +1,144 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fpivetti.microservices.composite.product.cache.SingleFlightLayer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SingleFlightCacheTests {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+	@SuppressWarnings("unchecked")
+	private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	void concurrentMissesShareOneLoad() throws Exception {
+		Cache cache = layer(SingleFlightLayer.Mode.LOCAL).decorate(new ConcurrentMapCache("products"));
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch loaded = new CountDownLatch(1);
+
+		CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> cache.get(1, () -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			assertTrue(loaded.await(5, TimeUnit.SECONDS));
+			return "value";
+		}));
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> cache.get(1, () -> {
+			loads.incrementAndGet();
+			return "other";
+		}));
+		while (count("coalesced") == 0) {
+			Thread.sleep(10);
+		}
+		loaded.countDown();
+
+		assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+		assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+		assertEquals(1, loads.get());
+		assertEquals(1, count("leader"));
+	}
+
+	@Test
+	void missFilledBeforeTakingTheSlotIsNotLoadedAgain() {
+		// The first lookup misses, the previous leader fills the cache and gives the slot up right after it
+		Cache redis = new ConcurrentMapCache("products") {
+			private boolean looked;
+
+			@Override
+			public ValueWrapper get(Object key) {
+				ValueWrapper wrapper = super.get(key);
+				if (!looked) {
+					looked = true;
+					put(key, "value");
+				}
+				return wrapper;
+			}
+		};
+		Cache cache = layer(SingleFlightLayer.Mode.LOCAL).decorate(redis);
+
+		assertEquals("value", cache.get(1, this::load));
+		assertEquals(0, loads.get());
+		assertEquals(0, count("leader"));
+	}
+
+	@Test
+	void failedLoadIsRecorded() {
+		Cache cache = layer(SingleFlightLayer.Mode.LOCAL).decorate(new ConcurrentMapCache("products"));
+
+		assertThrows(Cache.ValueRetrievalException.class, () -> cache.get(1, () -> {
+			throw new IllegalStateException("failed");
+		}));
+		// As for retrieve, the load counts once the loader is called, whatever its outcome
+		assertEquals(1, count("leader"));
+	}
+
+	@Test
+	void leaseHolderLoads() {
+		when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+		Cache cache = layer(SingleFlightLayer.Mode.CLUSTER).decorate(new ConcurrentMapCache("products"));
+
+		assertEquals("value", cache.get(1, this::load));
+		assertEquals(1, loads.get());
+		assertEquals(1, count("leader"));
+	}
+
+	@Test
+	void leaseFollowerReadsWhatTheHolderCached() {
+		when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+		when(redisTemplate.hasKey(anyString())).thenReturn(true);
+		Cache redis = new ConcurrentMapCache("products");
+		Cache cache = layer(SingleFlightLayer.Mode.CLUSTER).decorate(redis);
+
+		// The holder, on another replica, fills the cache while we poll it
+		CompletableFuture.runAsync(() -> redis.put(1, "value"), CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+
+		assertEquals("value", cache.get(1, this::load));
+		assertEquals(0, loads.get());
+		assertEquals(1, count("lease-follower"));
+	}
+
+	@Test
+	void leaseFollowerLoadsWhenTheLeaseIsGone() {
+		when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+		when(redisTemplate.hasKey(anyString())).thenReturn(false);
+		Cache cache = layer(SingleFlightLayer.Mode.CLUSTER).decorate(new ConcurrentMapCache("products"));
+
+		assertEquals("value", cache.get(1, this::load));
+		assertEquals(1, loads.get());
+		assertEquals(1, count("lease-timeout"));
+	}
+
+	private SingleFlightLayer layer(SingleFlightLayer.Mode mode) {
+		when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+		return new SingleFlightLayer(redisTemplate, mock(ReactiveStringRedisTemplate.class), meterRegistry, mode,
+				Duration.ofSeconds(10), Duration.ofSeconds(3), Duration.ofMillis(10));
+	}
+
+	private String load() {
+		loads.incrementAndGet();
+		return "value";
+	}
+
+	private double count(String role) {
+		var counter = meterRegistry.find("cache.single.flight.loads").tags("cache", "products", "role", role).counter();
+		return (counter != null) ? counter.count() : 0;
+	}
+}
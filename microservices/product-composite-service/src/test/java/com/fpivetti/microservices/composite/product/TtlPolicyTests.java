@@ -0,0 +1,49 @@
+package com.fpivetti.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fpivetti.microservices.composite.product.cache.Tombstone;
+import com.fpivetti.microservices.composite.product.cache.TtlPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+class TtlPolicyTests {
+	private static final Duration TTL = Duration.ofMinutes(60);
+
+	@Test
+	void jitterOnlyShortensTheTtl() {
+		TtlPolicy policy = TtlPolicy.of(TTL, 0.1);
+		Set<Duration> ttls = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			Duration ttl = policy.ttlOf("value");
+			assertTrue(ttl.compareTo(TTL) <= 0 && ttl.compareTo(TTL.minusMinutes(6)) >= 0, "Out of the jitter range: " + ttl);
+			ttls.add(ttl);
+		}
+		assertTrue(ttls.size() > 1);
+		assertEquals(TTL, TtlPolicy.of(TTL, 0).ttlOf("value"));
+	}
+
+	@Test
+	void firstMatchingRuleWins() {
+		TtlPolicy policy = TtlPolicy.of(TTL, 0)
+				.when(Tombstone.class, Duration.ofMinutes(1))
+				.when(String.class, value -> value.startsWith("short"), Duration.ofMinutes(10))
+				.when(String.class, value -> value.endsWith("s"), Duration.ofMinutes(20));
+
+		assertEquals(Duration.ofMinutes(1), policy.ttlOf(new Tombstone("not found")));
+		assertEquals(Duration.ofMinutes(10), policy.ttlOf("shorts"));
+		assertEquals(Duration.ofMinutes(20), policy.ttlOf("values"));
+		assertEquals(TTL, policy.ttlOf("value"));
+		assertEquals(TTL, policy.getTimeToLive("key", 1));
+	}
+
+	@Test
+	void invalidPoliciesAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> TtlPolicy.of(Duration.ZERO, 0.1));
+		assertThrows(IllegalArgumentException.class, () -> TtlPolicy.of(TTL, 1));
+		assertThrows(IllegalArgumentException.class, () -> TtlPolicy.of(TTL, -0.1));
+	}
+}
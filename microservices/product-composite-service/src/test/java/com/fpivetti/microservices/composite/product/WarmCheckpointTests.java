@@ -0,0 +1,147 @@
+package com.fpivetti.microservices.composite.product;
+
+import static com.fpivetti.microservices.composite.product.ProductCompositeTestFixtures.*;
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import com.fpivetti.api.composite.product.ProductAggregateDto;
+import com.fpivetti.api.composite.product.ServiceAddressesDto;
+import com.fpivetti.microservices.composite.product.cache.CacheValueSerializer;
+import com.fpivetti.microservices.composite.product.cache.NearCacheCheckpointer;
+import com.fpivetti.microservices.composite.product.cache.WarmCheckpoint;
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = "app.cache.near.checkpoint.enabled=true")
+class WarmCheckpointTests extends RedisCacheTestBase {
+	private static final int PRODUCT_ID_OK = 1;
+	private static final int PRODUCT_ID_CHECKPOINTED = 9;
+	private static final CacheValueSerializer SERIALIZER = new CacheValueSerializer("products", ProductAggregateDto.class,
+			CacheValueSerializer.Format.SMILE, CacheValueSerializer.NO_COMPRESSION, new SimpleMeterRegistry());
+	private static Path directory;
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private NearCacheCheckpointer checkpointer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private CacheManager cacheManager;
+
+	@MockBean
+	private ProductCompositeIntegration compositeIntegration;
+
+	/**
+	 * The checkpoint left by the previous instance must exist before the context starts.
+	 */
+	@DynamicPropertySource
+	static void checkpointProperties(DynamicPropertyRegistry registry) {
+		try {
+			directory = Files.createTempDirectory("checkpoint");
+			// Taken after any write to the cache
+			WarmCheckpoint.write(directory.resolve("products.checkpoint"), Long.MAX_VALUE, List.of(
+					entry(PRODUCT_ID_CHECKPOINTED, System.currentTimeMillis() + 60_000),
+					entry(PRODUCT_ID_CHECKPOINTED + 1, System.currentTimeMillis() - 1)));
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		registry.add("app.cache.near.checkpoint.directory", () -> directory.toString());
+	}
+
+	@BeforeEach
+	void setUp() {
+		stubProduct(compositeIntegration, PRODUCT_ID_OK);
+		flushRedis(redisTemplate);
+	}
+
+	@Test
+	void getProductRestoredFromCheckpoint() {
+		client.get().uri("/product-composite/" + PRODUCT_ID_CHECKPOINTED).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectBody()
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_CHECKPOINTED)
+				.jsonPath("$.name").isEqualTo("checkpointed");
+
+		// The entry is no longer in Redis, so refresh-ahead reloads it in the background, but it is served as restored
+		assertEquals(1, meterRegistry.get("cache.checkpoint.restores").tag("cache", "products").counter().count());
+	}
+
+	@Test
+	void checkpointHoldsTheStoredEntries() {
+		client.get().uri("/product-composite/" + PRODUCT_ID_OK).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK);
+		checkpointer.checkpoint();
+
+		WarmCheckpoint checkpoint = checkpointer.open("products");
+		byte[] value = checkpoint.get(String.valueOf(PRODUCT_ID_OK));
+		assertNotNull(value);
+		assertEquals(PRODUCT_ID_OK, ((ProductAggregateDto) SERIALIZER.deserialize(value)).getProductId());
+	}
+
+	@Test
+	void entriesWrittenSinceTheCheckpointAreDropped() {
+		Cache cache = Objects.requireNonNull(cacheManager.getCache("products"));
+		// Written before the checkpoint, and no longer in the near cache
+		cache.evict(PRODUCT_ID_OK);
+		client.get().uri("/product-composite/" + PRODUCT_ID_OK).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK);
+		checkpointer.checkpoint();
+		assertNotNull(checkpointer.open("products").get(String.valueOf(PRODUCT_ID_OK)));
+
+		// The invalidation is published while the replica is down
+		cache.evict(PRODUCT_ID_OK);
+		assertNull(checkpointer.open("products").get(String.valueOf(PRODUCT_ID_OK)));
+	}
+
+	@Test
+	void expiredEntriesAndCheckpointsAreDiscarded() throws IOException {
+		Path path = directory.resolve("expired.checkpoint");
+		WarmCheckpoint.write(path, 0, List.of(
+				entry(PRODUCT_ID_CHECKPOINTED, System.currentTimeMillis() + 60_000),
+				entry(PRODUCT_ID_CHECKPOINTED + 1, System.currentTimeMillis() - 1)));
+
+		WarmCheckpoint checkpoint = WarmCheckpoint.open(path, Duration.ofMinutes(1));
+		assertNotNull(checkpoint.get(String.valueOf(PRODUCT_ID_CHECKPOINTED)));
+		assertNull(checkpoint.get(String.valueOf(PRODUCT_ID_CHECKPOINTED + 1)));
+
+		assertTrue(WarmCheckpoint.open(path, Duration.ZERO).isEmpty());
+		assertTrue(WarmCheckpoint.open(directory.resolve("missing.checkpoint"), Duration.ofMinutes(1)).isEmpty());
+	}
+
+	private static WarmCheckpoint.Entry entry(int productId, long expiresAt) {
+		ProductAggregateDto aggregate = new ProductAggregateDto(productId, "checkpointed", 1, emptyList(), emptyList(),
+				new ServiceAddressesDto("composite", "product", "recommendation", "review"));
+		return new WarmCheckpoint.Entry(String.valueOf(productId), SERIALIZER.serialize(aggregate), expiresAt);
+	}
+}
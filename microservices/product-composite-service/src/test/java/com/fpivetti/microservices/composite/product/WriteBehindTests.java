@@ -0,0 +1,81 @@
+package com.fpivetti.microservices.composite.product;
+
+import static com.fpivetti.microservices.composite.product.ProductCompositeTestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.List;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = "app.cache.write-behind.enabled=true")
+class WriteBehindTests extends RedisCacheTestBase {
+	private static final int PRODUCT_ID_OK = 1;
+	private static final int PRODUCT_ID_BATCH = 2;
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@MockBean
+	private ProductCompositeIntegration compositeIntegration;
+
+	@BeforeEach
+	void setUp() {
+		stubProduct(compositeIntegration, PRODUCT_ID_OK);
+		stubProducts(compositeIntegration, List.of(PRODUCT_ID_BATCH));
+		flushRedis(redisTemplate);
+	}
+
+	@Test
+	void getProductWritesBehind() throws InterruptedException {
+		double written = writtenFills();
+		client.get().uri("/product-composite/" + PRODUCT_ID_OK).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectBody().jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+
+		awaitKey("products::" + PRODUCT_ID_OK);
+		assertTrue(writtenFills() > written);
+	}
+
+	@Test
+	void getProductsWritesBehind() throws InterruptedException {
+		client.get().uri("/product-composite?ids=" + PRODUCT_ID_BATCH).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectBody().jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_BATCH);
+
+		awaitKey("products::" + PRODUCT_ID_BATCH);
+		// Once written, the aggregate is served by the cache
+		client.get().uri("/product-composite?ids=" + PRODUCT_ID_BATCH).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK);
+		verify(compositeIntegration, times(1)).getProductsAsync(List.of(PRODUCT_ID_BATCH));
+	}
+
+	private void awaitKey(String key) throws InterruptedException {
+		for (int i = 0; i < 50 && !Boolean.TRUE.equals(redisTemplate.hasKey(key)); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(redisTemplate.hasKey(key));
+	}
+
+	private double writtenFills() {
+		var counter = meterRegistry.find("cache.write.behind").tags("cache", "products", "result", "written").counter();
+		return (counter != null) ? counter.count() : 0;
+	}
+}
@@ -0,0 +1,79 @@
+package com.fpivetti.microservices.composite.product;
+
+import static com.fpivetti.microservices.composite.product.ProductCompositeTestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import com.fpivetti.microservices.composite.product.services.ProductCompositeIntegration;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"app.cache.codec.format=wire", "app.cache.near.enabled=false"})
+class ZeroCopyTests extends RedisCacheTestBase {
+	private static final int PRODUCT_ID_OK = 1;
+	private static final int PRODUCT_ID_NOT_FOUND = 2;
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private StringRedisTemplate redisTemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@MockBean
+	private ProductCompositeIntegration compositeIntegration;
+
+	@BeforeEach
+	void setUp() {
+		stubProduct(compositeIntegration, PRODUCT_ID_OK);
+		stubProductNotFound(compositeIntegration, PRODUCT_ID_NOT_FOUND);
+		flushRedis(redisTemplate);
+	}
+
+	@Test
+	void getProductServesStoredJson() {
+		double served = zeroCopy("served");
+		byte[] loaded = getProduct(PRODUCT_ID_OK);
+		byte[] cached = getProduct(PRODUCT_ID_OK);
+
+		assertEquals(new String(loaded), new String(cached));
+		assertEquals(served + 1, zeroCopy("served"));
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void getProductNotFoundFallsBack() {
+		for (int i = 0; i < 2; i++) {
+			client.get().uri("/product-composite/" + PRODUCT_ID_NOT_FOUND).accept(APPLICATION_JSON).exchange()
+					.expectStatus().isEqualTo(NOT_FOUND)
+					.expectBody().jsonPath("$.message").isEqualTo("NOT FOUND: " + PRODUCT_ID_NOT_FOUND);
+		}
+		verify(compositeIntegration, times(1)).getProductAsync(PRODUCT_ID_NOT_FOUND);
+	}
+
+	private byte[] getProduct(int productId) {
+		return client.get().uri("/product-composite/" + productId).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_JSON)
+				.expectBody().jsonPath("$.productId").isEqualTo(productId)
+				.returnResult().getResponseBody();
+	}
+
+	private double zeroCopy(String result) {
+		var counter = meterRegistry.find("cache.zero.copy").tags("cache", "products", "result", result).counter();
+		return (counter != null) ? counter.count() : 0;
+	}
+}
@@ -4,9 +4,13 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ProductRepository extends PagingAndSortingRepository<ProductEntity, String>, CrudRepository<ProductEntity, String> {
     Optional<ProductEntity> findByProductId(int productId);
+
+    List<ProductEntity> findByProductIdIn(Collection<Integer> productIds);
 }
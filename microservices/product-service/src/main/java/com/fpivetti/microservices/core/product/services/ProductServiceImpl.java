@@ -6,6 +6,7 @@ import com.fpivetti.api.exceptions.InvalidInputException;
 import com.fpivetti.api.exceptions.NotFoundException;
 import com.fpivetti.microservices.core.product.persistence.ProductEntity;
 import com.fpivetti.microservices.core.product.persistence.ProductRepository;
+import com.fpivetti.util.http.ProductIds;
 import com.fpivetti.util.http.ServiceUtil;
 import org.springframework.dao.DuplicateKeyException;
 import org.slf4j.Logger;
@@ -13,6 +14,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @RestController
 public class ProductServiceImpl implements ProductService {
     private static final Logger LOG = LoggerFactory.getLogger(ProductServiceImpl.class);
@@ -41,6 +46,20 @@ public class ProductServiceImpl implements ProductService {
         return response;
     }
 
+    @Override
+    public Map<Integer, ProductDto> getProducts(List<Integer> productIds) {
+        ProductIds.validate(productIds);
+        Map<Integer, ProductDto> response = new LinkedHashMap<>();
+        for (ProductEntity entity : repository.findByProductIdIn(productIds)) {
+            ProductDto productDto = mapper.entityToApi(entity);
+            productDto.setServiceAddress(serviceUtil.getServiceAddress());
+            response.put(productDto.getProductId(), productDto);
+        }
+
+        LOG.debug("getProducts: found {} of {} products", response.size(), productIds.size());
+        return response;
+    }
+
     @Override
     public ProductDto createProduct(ProductDto body) {
         try {
@@ -48,6 +48,21 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 				.jsonPath("$.message").isEqualTo("No product found for productId: " + PRODUCT_ID_NOT_FOUND);
 	}
 
+	@Test
+	void getProductsByProductIds() {
+		postAndVerifyProduct(PRODUCT_ID_OK, OK);
+		getAndVerifyProduct("?productIds=" + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND, OK)
+				.jsonPath("$.length()").isEqualTo(1)
+				.jsonPath("$['" + PRODUCT_ID_OK + "'].productId").isEqualTo(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void getProductsInvalidParameterNegativeValue() {
+		getAndVerifyProduct("?productIds=" + PRODUCT_ID_OK + "," + PRODUCT_ID_INVALID, UNPROCESSABLE_ENTITY)
+				.jsonPath("$.path").isEqualTo("/product")
+				.jsonPath("$.message").isEqualTo("Invalid productId: " + PRODUCT_ID_INVALID);
+	}
+
 	@Test
 	void getProductInvalidParameterNegativeValue() {
 		getAndVerifyProduct(PRODUCT_ID_INVALID, UNPROCESSABLE_ENTITY)
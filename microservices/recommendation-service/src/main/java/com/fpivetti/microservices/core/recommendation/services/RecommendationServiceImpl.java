@@ -5,6 +5,7 @@ import com.fpivetti.api.core.recommendation.RecommendationService;
 import com.fpivetti.api.exceptions.InvalidInputException;
 import com.fpivetti.microservices.core.recommendation.persistence.RecommendationEntity;
 import com.fpivetti.microservices.core.recommendation.persistence.RecommendationRepository;
+import com.fpivetti.util.http.ProductIds;
 import com.fpivetti.util.http.ServiceUtil;
 import org.springframework.dao.DuplicateKeyException;
 import org.slf4j.Logger;
@@ -12,7 +13,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 public class RecommendationServiceImpl implements RecommendationService {
@@ -41,6 +45,21 @@ public class RecommendationServiceImpl implements RecommendationService {
         return recommendationDtoList;
     }
 
+    @Override
+    public Map<Integer, List<RecommendationDto>> getRecommendations(List<Integer> productIds) {
+        ProductIds.validate(productIds);
+        Map<Integer, List<RecommendationDto>> response = new LinkedHashMap<>();
+        productIds.forEach(productId -> response.put(productId, new ArrayList<>()));
+        for (RecommendationEntity entity : repository.findByProductIdIn(productIds)) {
+            RecommendationDto recommendationDto = mapper.entityToApi(entity);
+            recommendationDto.setServiceAddress(serviceUtil.getServiceAddress());
+            response.get(recommendationDto.getProductId()).add(recommendationDto);
+        }
+
+        LOG.debug("getRecommendations: response size: {} products", response.size());
+        return response;
+    }
+
     @Override
     public RecommendationDto createRecommendation(RecommendationDto body) {
         try {
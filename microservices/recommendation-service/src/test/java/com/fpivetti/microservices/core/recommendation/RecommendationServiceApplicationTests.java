@@ -53,6 +53,17 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 				.jsonPath("$.length()").isEqualTo(0);
 	}
 
+	@Test
+	void getRecommendationsByProductIds() {
+		postAndVerifyRecommendation(PRODUCT_ID_OK, 1, OK);
+		postAndVerifyRecommendation(PRODUCT_ID_OK, 2, OK);
+
+		getAndVerifyRecommendationsByProductId("?productIds=" + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND, OK)
+				.jsonPath("$['" + PRODUCT_ID_OK + "'].length()").isEqualTo(2)
+				.jsonPath("$['" + PRODUCT_ID_OK + "'][0].recommendationId").isEqualTo(1)
+				.jsonPath("$['" + PRODUCT_ID_NOT_FOUND + "'].length()").isEqualTo(0);
+	}
+
 	@Test
 	void getRecommendationsInvalidParameterNegativeValue() {
 		getAndVerifyRecommendationsByProductId(PRODUCT_ID_INVALID, UNPROCESSABLE_ENTITY)
@@ -5,6 +5,7 @@ import com.fpivetti.api.core.review.ReviewService;
 import com.fpivetti.api.exceptions.InvalidInputException;
 import com.fpivetti.microservices.core.review.persistence.ReviewEntity;
 import com.fpivetti.microservices.core.review.persistence.ReviewRepository;
+import com.fpivetti.util.http.ProductIds;
 import com.fpivetti.util.http.ServiceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,7 +13,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 public class ReviewServiceImpl implements ReviewService {
@@ -41,6 +45,21 @@ public class ReviewServiceImpl implements ReviewService {
         return reviewDtoList;
     }
 
+    @Override
+    public Map<Integer, List<ReviewDto>> getReviews(List<Integer> productIds) {
+        ProductIds.validate(productIds);
+        Map<Integer, List<ReviewDto>> response = new LinkedHashMap<>();
+        productIds.forEach(productId -> response.put(productId, new ArrayList<>()));
+        for (ReviewEntity entity : repository.findByProductIdIn(productIds)) {
+            ReviewDto reviewDto = mapper.entityToApi(entity);
+            reviewDto.setServiceAddress(serviceUtil.getServiceAddress());
+            response.get(reviewDto.getProductId()).add(reviewDto);
+        }
+
+        LOG.debug("getReviews: response size: {} products", response.size());
+        return response;
+    }
+
     @Override
     public ReviewDto createReview(ReviewDto body) {
         try {
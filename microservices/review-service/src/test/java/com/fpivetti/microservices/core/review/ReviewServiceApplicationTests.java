@@ -53,6 +53,17 @@ class ReviewServiceApplicationTests extends PostgresTestBase {
 				.jsonPath("$.length()").isEqualTo(0);
 	}
 
+	@Test
+	void getReviewsByProductIds() {
+		postAndVerifyReview(PRODUCT_ID_OK, 1, OK);
+		postAndVerifyReview(PRODUCT_ID_OK, 2, OK);
+
+		getAndVerifyReviewsByProductId("?productIds=" + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND, OK)
+				.jsonPath("$['" + PRODUCT_ID_OK + "'].length()").isEqualTo(2)
+				.jsonPath("$['" + PRODUCT_ID_OK + "'][0].reviewId").isEqualTo(1)
+				.jsonPath("$['" + PRODUCT_ID_NOT_FOUND + "'].length()").isEqualTo(0);
+	}
+
 	@Test
 	void getReviewsInvalidParameterNegativeValue() {
 		getAndVerifyReviewsByProductId(PRODUCT_ID_INVALID, UNPROCESSABLE_ENTITY)
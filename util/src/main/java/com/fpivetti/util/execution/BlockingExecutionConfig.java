@@ -0,0 +1,121 @@
+package com.fpivetti.util.execution;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.config.BlockingExecutionConfigurer;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+/**
+ * Applies the configured {@link ExecutionModel} to the controller methods with a blocking signature,
+ * and exposes the same executor as the blockingScheduler to offload blocking work from reactive code.
+ * The EVENT_LOOP model is rejected at startup if any controller method has a blocking signature.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class BlockingExecutionConfig implements WebFluxConfigurer, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockingExecutionConfig.class);
+    private static final String THREAD_NAME_PREFIX = "blocking-";
+
+    private final ExecutionModel model;
+    private final ThreadPoolTaskExecutor boundedExecutor;
+    private final AsyncTaskExecutor executor;
+
+    @Autowired
+    public BlockingExecutionConfig(MeterRegistry meterRegistry,
+                                   @Value("${app.execution.model}") ExecutionModel model,
+                                   @Value("${app.execution.bounded.max-threads}") int maxThreads,
+                                   @Value("${app.execution.bounded.queue-capacity}") int queueCapacity) {
+        this.model = model;
+        switch (model) {
+            case BOUNDED -> {
+                boundedExecutor = new ThreadPoolTaskExecutor();
+                boundedExecutor.setCorePoolSize(maxThreads);
+                boundedExecutor.setMaxPoolSize(maxThreads);
+                boundedExecutor.setQueueCapacity(queueCapacity);
+                boundedExecutor.setThreadNamePrefix(THREAD_NAME_PREFIX);
+                boundedExecutor.initialize();
+                ExecutorServiceMetrics.monitor(meterRegistry, boundedExecutor.getThreadPoolExecutor(), "blocking", Tags.empty());
+                executor = boundedExecutor;
+            }
+            case VIRTUAL -> {
+                boundedExecutor = null;
+                executor = new VirtualThreadTaskExecutor(THREAD_NAME_PREFIX);
+            }
+            default -> {
+                boundedExecutor = null;
+                executor = null;
+            }
+        }
+        LOG.info("Blocking controller methods run with execution model: {}", model);
+    }
+
+    @Override
+    public void configureBlockingExecution(BlockingExecutionConfigurer configurer) {
+        if (executor != null) {
+            configurer.setExecutor(executor);
+        }
+    }
+
+    /**
+     * @return the scheduler to subscribe on for blocking work, the shared bounded elastic scheduler with the
+     * EVENT_LOOP model, since blocking work must never run on the event loop
+     */
+    @Bean
+    public Scheduler blockingScheduler() {
+        return switch (model) {
+            case BOUNDED -> Schedulers.fromExecutorService(boundedExecutor.getThreadPoolExecutor(), "blocking");
+            case VIRTUAL -> Schedulers.fromExecutor(executor);
+            default -> Schedulers.boundedElastic();
+        };
+    }
+
+    @EventListener
+    public void onContextRefreshed(ContextRefreshedEvent event) {
+        if (model != ExecutionModel.EVENT_LOOP) {
+            return;
+        }
+        List<String> blockingMethods = event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values().stream()
+                .flatMap(mapping -> mapping.getHandlerMethods().values().stream())
+                .filter(BlockingExecutionConfig::isBlocking)
+                .map(HandlerMethod::getShortLogMessage)
+                .toList();
+        if (!blockingMethods.isEmpty()) {
+            throw new IllegalStateException("The " + model + " execution model would run blocking controller methods on the event loop: " + blockingMethods);
+        }
+    }
+
+    /**
+     * The same test as the one WebFlux uses to pick the controller methods it runs on the configured executor.
+     */
+    private static boolean isBlocking(HandlerMethod handlerMethod) {
+        return ReactiveAdapterRegistry.getSharedInstance().getAdapter(handlerMethod.getReturnType().getParameterType()) == null;
+    }
+
+    @Override
+    public void destroy() {
+        if (boundedExecutor != null) {
+            boundedExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.fpivetti.util.execution;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpResources;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the server event loops are kept busy: a probe task is scheduled on every event loop
+ * and the delay between its due time and its actual run is recorded as the event.loop.lag timer.
+ * A lag close to the probe interval means that the loop threads are blocked.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class EventLoopLagMonitor implements InitializingBean, DisposableBean {
+    private final Timer lag;
+    private final Duration interval;
+    private volatile boolean running = true;
+
+    @Autowired
+    public EventLoopLagMonitor(MeterRegistry meterRegistry,
+                               @Value("${app.execution.event-loop-lag.interval}") Duration interval) {
+        this.interval = interval;
+        this.lag = Timer.builder("event.loop.lag")
+                .description("Delay of the tasks scheduled on the server event loops")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        for (EventExecutor loop : HttpResources.get().onServer(true)) {
+            probe(loop);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+    }
+
+    private void probe(EventExecutor loop) {
+        if (!running || loop.isShuttingDown()) {
+            return;
+        }
+        long dueAt = System.nanoTime() + interval.toNanos();
+        loop.schedule(() -> {
+            lag.record(Math.max(0, System.nanoTime() - dueAt), TimeUnit.NANOSECONDS);
+            probe(loop);
+        }, interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+}
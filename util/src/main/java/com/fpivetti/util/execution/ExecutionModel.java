@@ -0,0 +1,20 @@
+package com.fpivetti.util.execution;
+
+/**
+ * Where the controller methods with a blocking signature, i.e. not returning a Mono or a Flux, are run.
+ * Controller methods returning a Mono or a Flux always run on the event loop and must not block.
+ */
+public enum ExecutionModel {
+    /**
+     * On the Netty event loop, only for services that never block: rejected at startup if a controller method has a blocking signature
+     */
+    EVENT_LOOP,
+    /**
+     * On a bounded pool of platform threads with a bounded queue, excess requests are rejected
+     */
+    BOUNDED,
+    /**
+     * On a new virtual thread per request
+     */
+    VIRTUAL
+}
@@ -9,8 +9,11 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 
 
@@ -34,4 +37,10 @@ public class GlobalControllerExceptionHandler {
     public @ResponseBody HttpErrorInfo handleInvalidInputException(ServerHttpRequest request, InvalidInputException ex) {
         return new HttpErrorInfo(UNPROCESSABLE_ENTITY, request.getPath().pathWithinApplication().value(), ex.getMessage());
     }
+
+    @ResponseStatus(SERVICE_UNAVAILABLE)
+    @ExceptionHandler(RejectedExecutionException.class)
+    public @ResponseBody HttpErrorInfo handleRejectedExecutionException(ServerHttpRequest request, RejectedExecutionException ex) {
+        return new HttpErrorInfo(SERVICE_UNAVAILABLE, request.getPath().pathWithinApplication().value(), "Too many concurrent requests, try again later");
+    }
 }
@@ -0,0 +1,29 @@
+package com.fpivetti.util.http;
+
+import com.fpivetti.api.exceptions.InvalidInputException;
+
+import java.util.List;
+
+/**
+ * Validation of the productIds of the batch endpoints, shared by the core services and the composite.
+ */
+public final class ProductIds {
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private ProductIds() {
+    }
+
+    /**
+     * @throws InvalidInputException if there are no productIds, more than MAX_BATCH_SIZE, or one below 1
+     */
+    public static void validate(List<Integer> productIds) {
+        if (productIds.isEmpty() || productIds.size() > MAX_BATCH_SIZE) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_BATCH_SIZE);
+        }
+        for (Integer productId : productIds) {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        }
+    }
+}